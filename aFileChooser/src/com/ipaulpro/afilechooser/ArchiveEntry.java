@@ -0,0 +1,40 @@
+package com.ipaulpro.afilechooser;
+
+import java.io.File;
+
+/**
+ * Snapshot of an entry inside a zip or jar archive.
+ *
+ * Its path is the archive's path followed by the entry's name, so it
+ * displays like a physical file, but nothing exists at that path. Use
+ * {@link #getArchive()} and {@link #getEntryName()} to get at the content.
+ */
+public class ArchiveEntry extends VFile {
+    private final File mArchive;
+    private final String mEntryName;
+
+    /**
+     * @param archive The archive holding the entry.
+     * @param dir The archive or the pseudo path of the entry's directory in it.
+     * @param name The last segment of the entry name.
+     * @param entryName The full entry name, as in the archive.
+     */
+    public ArchiveEntry(File archive, File dir, String name, String entryName, boolean isDirectory,
+                        long length, long lastModified, boolean hasChildDirectories) {
+        super(dir, name, isDirectory, length, lastModified, hasChildDirectories, ARCHIVE_ENTRY);
+        mArchive = archive;
+        mEntryName = entryName;
+    }
+
+    public File getArchive() {
+        return mArchive;
+    }
+
+    /**
+     * @return The path of the entry inside the archive, without a leading
+     *         or trailing slash.
+     */
+    public String getEntryName() {
+        return mEntryName;
+    }
+}
@@ -0,0 +1,106 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */ 
+
+package com.ipaulpro.afilechooser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+import android.support.v4.content.AsyncTaskLoader;
+import android.util.Log;
+
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+import com.ipaulpro.afilechooser.utils.ZipIndex;
+
+/**
+ * Loader that returns the entries of a directory inside a zip or jar
+ * archive. The archive's central directory is only read by the first
+ * loader, later ones list from the cached {@link ZipIndex}. Entries are
+ * kept or dropped by a {@link ScanFilter}.
+ */
+public class ArchiveLoader extends AsyncTaskLoader<List<VFile>> {
+	private static final String TAG = "ArchiveLoader";
+
+	private List<VFile> mData;
+	private File mArchive;
+	private String mPath;
+	private ScanFilter mFilter;
+
+	/**
+	 * @param archive
+	 * @param path Directory inside the archive, "" for the root.
+	 */
+	public ArchiveLoader(Context context, File archive, String path) {
+		this(context, archive, path, ScanFilter.DEFAULT);
+	}
+
+	/**
+	 * @param archive
+	 * @param path Directory inside the archive, "" for the root.
+	 * @param filter Decides which entries are listed.
+	 */
+	public ArchiveLoader(Context context, File archive, String path, ScanFilter filter) {
+		super(context);
+		this.mArchive = archive;
+		this.mPath = path;
+		this.mFilter = filter;
+	}
+
+	@Override
+	public List<VFile> loadInBackground() {
+		try {
+			final List<VFile> files = ZipIndex.get(mArchive).list(mPath);
+			if (files != null)
+				return mFilter.apply(files);
+		} catch (IOException e) {
+			Log.e(TAG, "Unable to read " + mArchive, e);
+		}
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void deliverResult(List<VFile> data) {
+		if (isReset())
+			return;
+
+		mData = data;
+		if (isStarted())
+			super.deliverResult(data);
+	}
+
+	@Override
+	protected void onStartLoading() {
+		if (mData != null)
+			deliverResult(mData);
+
+		if (takeContentChanged() || mData == null)
+			forceLoad();
+	}
+
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+
+	@Override
+	protected void onReset() {
+		onStopLoading();
+		mData = null;
+	}
+}
@@ -0,0 +1,81 @@
+package com.ipaulpro.afilechooser;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * VFS over the entries of a zip or jar archive, backed by an
+ * {@link ArchiveLoader}.
+ *
+ * Paths are pseudo paths: the archive's path followed by the directory
+ * inside it, like the paths of the {@link ArchiveEntry} files it lists.
+ */
+public class ArchiveVFS implements VFS, LoaderManager.LoaderCallbacks<List<VFile>> {
+    private final File mArchive;
+    private final ScanFilter mFilter;
+
+    private Context mContext;
+    private DataSetObserver mObserver;
+    private List<VFile> mVFiles;
+
+    public ArchiveVFS(File archive) {
+        this(archive, ScanFilter.DEFAULT);
+    }
+
+    /**
+     * @param filter Decides which entries are listed.
+     */
+    public ArchiveVFS(File archive, ScanFilter filter) {
+        mArchive = archive;
+        mFilter = filter;
+    }
+
+    @Override
+    public void setObserver(DataSetObserver aObserver) {
+        mObserver = aObserver;
+    }
+
+    @Override
+    public void onActivityCreated(Context aContext, LoaderManager loaderManager, int startLoaderId, String aPath) {
+        mContext = aContext;
+
+        Bundle args = new Bundle();
+        args.putString(FileChooserActivity.PATH, aPath);
+        loaderManager.initLoader(startLoaderId, args, this);
+    }
+
+    @Override
+    public List<VFile> getVFiles() {
+        return mVFiles;
+    }
+
+    @Override
+    public Loader<List<VFile>> onCreateLoader(int id, Bundle args) {
+        String path = args.getString(FileChooserActivity.PATH);
+        String archivePath = mArchive.getAbsolutePath();
+        String inner = path.startsWith(archivePath) ? path.substring(archivePath.length()) : "";
+        return new ArchiveLoader(mContext, mArchive, inner, mFilter);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<List<VFile>> loader, List<VFile> data) {
+        mVFiles = data;
+        if (mObserver != null)
+            mObserver.onChanged();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<List<VFile>> loader) {
+        mVFiles = null;
+        if (mObserver != null)
+            mObserver.onInvalidated();
+    }
+}
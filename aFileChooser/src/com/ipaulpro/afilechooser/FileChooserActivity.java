@@ -24,21 +24,35 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.database.DataSetObserver;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Environment;
+import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentManager.BackStackEntry;
 import android.support.v4.app.FragmentManager.OnBackStackChangedListener;
 import android.support.v4.app.FragmentTransaction;
-import android.support.v4.app.LoaderManager;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.SearchView;
 import android.widget.Toast;
 
+import com.ipaulpro.afilechooser.utils.ChildDirectoryCache;
+import com.ipaulpro.afilechooser.utils.DirectoryIndex;
 import com.ipaulpro.afilechooser.utils.FileUtils;
+import com.ipaulpro.afilechooser.utils.MimeTypes;
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+import com.ipaulpro.afilechooser.utils.ZipIndex;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Main Activity that handles the FileListFragments 
@@ -54,11 +68,50 @@ public class FileChooserActivity extends FragmentActivity implements
     public static final String ACTION_FOLDER_BROWSER = "FolderBrowser";
     public static final String ACTION_FILE_BROWSER = "FileBrowser";
     public static final String EXTRA_BASE_PATH = "BasePath";
+	/** Boolean extra: keep listings in a persistent index in the cache dir. */
+	public static final String EXTRA_PERSISTENT_INDEX = "PersistentIndex";
+	/** Boolean extra: also list entries whose name starts with a dot. */
+	public static final String EXTRA_SHOW_HIDDEN = "ShowHidden";
+	/**
+	 * String array extra: the MIME types a GET_CONTENT caller accepts, in
+	 * place of the intent's type. Intent.EXTRA_MIME_TYPES from API 19 on.
+	 */
+	public static final String EXTRA_MIME_TYPES = "android.intent.extra.MIME_TYPES";
+	/**
+	 * Uri extra: browse the documents of a tree granted by
+	 * ACTION_OPEN_DOCUMENT_TREE, instead of the file system. Starts at the
+	 * tree's root, or at EXTRA_ROOT_DOCUMENT_ID within it.
+	 */
+	public static final String EXTRA_DOCUMENTS_TREE = "DocumentsTree";
+	/**
+	 * String extras: browse the documents of a documents provider, starting
+	 * at the given directory document, instead of the file system. Without
+	 * a tree, providers of other apps only answer callers holding
+	 * MANAGE_DOCUMENTS; prefer EXTRA_DOCUMENTS_TREE.
+	 */
+	public static final String EXTRA_DOCUMENTS_AUTHORITY = "DocumentsAuthority";
+	public static final String EXTRA_ROOT_DOCUMENT_ID = "RootDocumentId";
+	/**
+	 * Boolean extra: without a base path, start at one listing merging the
+	 * roots of all mounted storage volumes.
+	 */
+	public static final String EXTRA_ALL_VOLUMES = "AllVolumes";
 
     private boolean mFolderBrowser = false ;
 
     public static final String ARG_FOLDER_BROWSER = "FolderBrowser";
     public static final String PATH = "path";
+	public static final String ARG_QUERY = "query";
+	public static final String ARG_ARCHIVE = "archive";
+	public static final String ARG_AUTHORITY = "authority";
+	public static final String ARG_TREE_DOCUMENT_ID = "treeDocumentId";
+	public static final String ARG_DOCUMENT_ID = "documentId";
+	public static final String ARG_VOLUMES = "volumes";
+
+	/** Pseudo path of the listing of all storage volumes. */
+	private static final String VOLUMES_PATH = "/";
+
+	private static final String EXTRACTED_DIR_NAME = "afilechooser-extracted";
 
 	private FragmentManager mFragmentManager;
 	private BroadcastReceiver mStorageListener = new BroadcastReceiver() {
@@ -71,6 +124,14 @@ public class FileChooserActivity extends FragmentActivity implements
 
     private String mPath;
 	protected String mBasePath; // start browsing here
+	private String mAuthority; // documents provider, if not browsing files
+	private String mTreeDocumentId; // granted tree of the documents provider, if any
+	private boolean mVolumes; // start at the roots of all storage volumes
+
+	private ListingRetainFragment mListingRetainer;
+	private ScanFilter mScanFilter; // compiled from the intent on first use
+	private MenuItem mSearchItem;
+	private SearchView mSearchView;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -81,6 +142,28 @@ public class FileChooserActivity extends FragmentActivity implements
 			mFolderBrowser = true ;
 		}
 
+		final Uri tree = getIntent().getParcelableExtra(EXTRA_DOCUMENTS_TREE);
+		if( tree != null ) {
+			mAuthority = tree.getAuthority();
+			mTreeDocumentId = ProviderDocument.getTreeDocumentId(tree);
+		} else {
+			mAuthority = getIntent().getStringExtra(EXTRA_DOCUMENTS_AUTHORITY);
+		}
+		if( mAuthority != null ) {
+			// Titles show display names under the authority
+			mBasePath = "/" + mAuthority;
+		}
+		if( mBasePath == null ) {
+			mBasePath = getIntent().getStringExtra(EXTRA_BASE_PATH);
+		}
+		if( mBasePath == null && getIntent().getBooleanExtra(EXTRA_ALL_VOLUMES, false) ) {
+			mVolumes = true;
+			mBasePath = VOLUMES_PATH;
+		}
+		if( mBasePath == null ) {
+			mBasePath = Environment.getExternalStorageDirectory().getAbsolutePath();
+		}
+
         mPath = mBasePath ;
 
 		setContentView(R.layout.chooser);
@@ -88,6 +171,12 @@ public class FileChooserActivity extends FragmentActivity implements
 		mFragmentManager = getSupportFragmentManager();
 		mFragmentManager.addOnBackStackChangedListener(this);
 
+		mListingRetainer = (ListingRetainFragment) mFragmentManager.findFragmentByTag(ListingRetainFragment.TAG);
+		if (mListingRetainer == null) {
+			mListingRetainer = new ListingRetainFragment();
+			mFragmentManager.beginTransaction().add(mListingRetainer, ListingRetainFragment.TAG).commit();
+		}
+
 		if (savedInstanceState == null) {
 			addFragment();
 		} else {
@@ -137,13 +226,48 @@ public class FileChooserActivity extends FragmentActivity implements
 		}
 		
 		setPathTitle(mPath);
+
+		// Forget the listings of popped levels
+		Set<String> paths = new HashSet<String>();
+		paths.add(mBasePath);
+		for (int i = 0; i < count; i++) {
+			paths.add(mFragmentManager.getBackStackEntryAt(i).getName());
+		}
+		mListingRetainer.retainOnly(paths);
+
+		// Back left the search results, put the search field away too. An
+		// emptied query also ends the search, but leaves the field open.
+		Fragment current = mFragmentManager.findFragmentById(R.id.explorer_fragment);
+		boolean searching = current instanceof FileListFragment && ((FileListFragment) current).isSearch();
+		if (!searching && mSearchItem != null && mSearchItem.isActionViewExpanded()
+				&& mSearchView.getQuery().length() > 0) {
+			mSearchItem.collapseActionView();
+		}
+	}
+
+	/**
+	 * @return Listings and scroll positions of the back stack levels.
+	 */
+	ListingRetainFragment getListingRetainer() {
+		return mListingRetainer;
 	}
 	
 	/**
 	 * Add the initial Fragment with given path.
 	 */
 	private void addFragment() {
-		FileListFragment fragment = FileListFragment.newInstance(mPath, mFolderBrowser, getVFS());
+		FileListFragment fragment;
+		if (mAuthority != null) {
+			String rootId = getIntent().getStringExtra(EXTRA_ROOT_DOCUMENT_ID);
+			if (rootId == null)
+				rootId = mTreeDocumentId;
+			fragment = FileListFragment.newProviderInstance(mPath, mFolderBrowser, mAuthority,
+					mTreeDocumentId, rootId, getProviderVFS(mAuthority, mTreeDocumentId, rootId));
+		} else if (mVolumes) {
+			fragment = FileListFragment.newVolumesInstance(mPath, mFolderBrowser, getVolumesVFS());
+		} else {
+			fragment = FileListFragment.newInstance(mPath, mFolderBrowser, getVFS());
+		}
 		mFragmentManager.beginTransaction()
 				.add(R.id.explorer_fragment, fragment).commit();
 	}
@@ -155,9 +279,118 @@ public class FileChooserActivity extends FragmentActivity implements
 	 * @param file The file (directory) to display.
 	 */
 	private void replaceFragment(File file) {
-        mPath = file.getAbsolutePath();
+		mPath = file.getAbsolutePath();
+
+		if (file instanceof ProviderDocument) {
+			ProviderDocument document = (ProviderDocument) file;
+			addLevel(FileListFragment.newProviderInstance(mPath, mFolderBrowser, document.getAuthority(),
+					document.getTreeDocumentId(), document.getDocumentId(),
+					getProviderVFS(document.getAuthority(), document.getTreeDocumentId(),
+							document.getDocumentId())));
+			return;
+		}
+
+		File archive = null;
+		if (file instanceof ArchiveEntry)
+			archive = ((ArchiveEntry) file).getArchive();
+		else if (!file.isDirectory() && ZipIndex.isArchive(file.getName()))
+			archive = file;
+
+		FileListFragment fragment = archive == null
+				? FileListFragment.newInstance(mPath, mFolderBrowser, getVFS())
+				: FileListFragment.newArchiveInstance(mPath, mFolderBrowser, archive.getAbsolutePath(),
+						getArchiveVFS(archive.getAbsolutePath()));
+		addLevel(fragment);
+	}
+
+	/**
+	 * Show a fragment on top of the current level, on the back stack.
+	 */
+	private void addLevel(FileListFragment fragment) {
+		mFragmentManager.beginTransaction()
+				.replace(R.id.explorer_fragment, fragment)
+				.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN)
+				.addToBackStack(mPath).commit();
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		if (mAuthority != null) {
+			// Documents providers are not searched
+			return super.onCreateOptionsMenu(menu);
+		}
+
+		final SearchView searchView = mSearchView = new SearchView(this);
+		searchView.setQueryHint(getString(R.string.search));
+		searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+			@Override
+			public boolean onQueryTextSubmit(String query) {
+				search(query);
+				// Hide the keyboard, the results are what matters now
+				searchView.clearFocus();
+				return true;
+			}
+
+			@Override
+			public boolean onQueryTextChange(String query) {
+				search(query);
+				return true;
+			}
+		});
+
+		mSearchItem = menu.add(Menu.NONE, Menu.NONE, Menu.NONE, R.string.search);
+		mSearchItem.setIcon(android.R.drawable.ic_menu_search);
+		mSearchItem.setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM
+				| MenuItem.SHOW_AS_ACTION_COLLAPSE_ACTION_VIEW);
+		mSearchItem.setActionView(searchView);
+		mSearchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+			@Override
+			public boolean onMenuItemActionExpand(MenuItem item) {
+				return true;
+			}
+
+			@Override
+			public boolean onMenuItemActionCollapse(MenuItem item) {
+				search(null);
+				return true;
+			}
+		});
+		super.onCreateOptionsMenu(menu);
+		return true;
+	}
+
+	/**
+	 * Search the tree under the base path for files whose name contains the
+	 * query. The first call shows the results on top of the current level,
+	 * later calls update them as the user types.
+	 * 
+	 * @param query An empty query ends the search.
+	 */
+	public void search(String query) {
+		if (mAuthority != null) {
+			// Documents providers are not searched
+			return;
+		}
+
+		Fragment current = mFragmentManager.findFragmentById(R.id.explorer_fragment);
+		boolean searching = current instanceof FileListFragment && ((FileListFragment) current).isSearch();
+
+		if (query == null || query.length() == 0) {
+			if (searching)
+				mFragmentManager.popBackStack();
+			return;
+		}
+
+		if (searching) {
+			((FileListFragment) current).setQuery(query);
+			return;
+		}
 
-        FileListFragment fragment = FileListFragment.newInstance(mPath, mFolderBrowser, getVFS());
+		// Named after the current level, which is shown again when the search ends
+		String searchPath = mVolumes
+				? Environment.getExternalStorageDirectory().getAbsolutePath() : mBasePath;
+		FileListFragment fragment = FileListFragment.newSearchInstance(searchPath, mFolderBrowser, query,
+				getSearchVFS(query));
 		mFragmentManager.beginTransaction()
 				.replace(R.id.explorer_fragment, fragment)
 				.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN)
@@ -181,9 +414,7 @@ public class FileChooserActivity extends FragmentActivity implements
 				@Override
 				public void onClick(DialogInterface dialog, int which) {
 					dialog.dismiss();
-					Uri uri = Uri.fromFile(file);
-					setResult(RESULT_OK, new Intent().setData(uri));
-					finish();
+					deliverResult(FileChooserActivity.this, file);
 				}
 			})
 		    .setNegativeButton("No", null)
@@ -202,14 +433,64 @@ public class FileChooserActivity extends FragmentActivity implements
 				@Override
 				public void onClick(DialogInterface dialog, int which) {
 					dialog.dismiss();
-					Uri uri = Uri.fromFile(file);
-					aActivity.setResult(RESULT_OK, new Intent().setData(uri));
-					aActivity.finish();
+					deliverResult(aActivity, file);
 				}
 			})
 		    .setNegativeButton("No", null)
 		    .show();
 	}
+
+	/**
+	 * Finish with the URI of the selected file. An archive entry is
+	 * extracted first, on its own, into the cache dir.
+	 */
+	private static void deliverResult(Activity aActivity, File file) {
+		if (file instanceof ArchiveEntry) {
+			new ExtractTask(aActivity).execute((ArchiveEntry) file);
+			return;
+		}
+		Uri uri = file instanceof ProviderDocument ? ((ProviderDocument) file).getUri() : Uri.fromFile(file);
+		aActivity.setResult(RESULT_OK, new Intent().setData(uri));
+		aActivity.finish();
+	}
+
+	private static class ExtractTask extends AsyncTask<ArchiveEntry, Void, File> {
+		private final Activity mActivity;
+
+		ExtractTask(Activity activity) {
+			mActivity = activity;
+		}
+
+		@Override
+		protected File doInBackground(ArchiveEntry... entries) {
+			final ArchiveEntry entry = entries[0];
+			// One directory per entry keeps the original file name
+			final String key = entry.getArchive().getAbsolutePath() + '/' + entry.getEntryName();
+			final File dir = new File(new File(mActivity.getCacheDir(), EXTRACTED_DIR_NAME),
+					Integer.toHexString(key.hashCode()));
+			final File dest = new File(dir, entry.getName());
+			try {
+				if (!dir.isDirectory() && !dir.mkdirs())
+					throw new IOException("Can't create " + dir);
+				ZipIndex.get(entry.getArchive()).extract(entry, dest);
+				return dest;
+			} catch (IOException e) {
+				Log.e("FileChooserActivity", "Unable to extract " + key, e);
+				dest.delete();
+				return null;
+			}
+		}
+
+		@Override
+		protected void onPostExecute(File file) {
+			if (file == null) {
+				Toast.makeText(mActivity, R.string.error_selecting_file, Toast.LENGTH_SHORT).show();
+				return;
+			}
+			mActivity.setResult(RESULT_OK, new Intent().setData(Uri.fromFile(file)));
+			mActivity.finish();
+		}
+	}
 	
 	/**
 	 * Called when the user selects a File
@@ -220,7 +501,14 @@ public class FileChooserActivity extends FragmentActivity implements
 		if (file != null) {
 			// folder browser - recurse only if has children directories
 			if( mFolderBrowser ) {
-				if( FileUtils.hasChildDirectories( file ) ) {
+				Boolean hasChildDirectories = file instanceof VFile
+						? ((VFile) file).peekChildDirectories()
+						: ChildDirectoryCache.peek( file.getAbsolutePath() );
+				if( hasChildDirectories == null ) {
+					// Not looked at yet
+					hasChildDirectories = FileUtils.hasChildDirectories( file );
+				}
+				if( hasChildDirectories ) {
 					replaceFragment(file);
 				} else {
 					finishWithResult(file);	
@@ -228,7 +516,9 @@ public class FileChooserActivity extends FragmentActivity implements
 				return ;
 			}
 			
-			if (file.isDirectory()) {
+			// Archives on the file system are browsed like directories, unless
+			// the caller accepts them; then they are browsed by a long press
+			if (file.isDirectory() || (isArchive(file) && !getScanFilter().acceptsFileName(file.getName()))) {
 				replaceFragment(file);
 			} else {
 				finishWithResult(file);	
@@ -237,6 +527,29 @@ public class FileChooserActivity extends FragmentActivity implements
 			Toast.makeText(FileChooserActivity.this, R.string.error_selecting_file, Toast.LENGTH_SHORT).show();
 		}
 	}
+
+	/**
+	 * Called when the user long presses a File. Browses an archive, selects
+	 * anything else right away.
+	 * 
+	 * @param file The file that was long pressed
+	 */
+	protected void onFileLongPressed(File file) {
+		if (file != null && !mFolderBrowser && isArchive(file)) {
+			replaceFragment(file);
+		} else {
+			finishWithResult(this, file);
+		}
+	}
+
+	/**
+	 * @return Whether the file is an archive on the file system, which can
+	 *         be browsed like a directory.
+	 */
+	private static boolean isArchive(File file) {
+		boolean physical = !(file instanceof VFile) || ((VFile) file).getType() == VFile.PHYSICAL_FILE;
+		return physical && !file.isDirectory() && ZipIndex.isArchive(file.getName());
+	}
 	
 	/**
 	 * Register the external storage BroadcastReceiver.
@@ -254,24 +567,108 @@ public class FileChooserActivity extends FragmentActivity implements
 		unregisterReceiver(mStorageListener);
 	}
 
-    public VFS getVFS() {
-        return new VFS() {
-            @Override
-            public void setObserver(DataSetObserver aObserver) {
-                // TODO
-            }
-
-            @Override
-            public void onActivityCreated(Context aContext, LoaderManager loaderManager, int startLoaderId, String aPath) {
-                // TODO
-
-            }
-
-            @Override
-            public List<VFile> getVFiles() {
-                // TODO
-                return null;
-            }
-        };
-    }
-}
\ No newline at end of file
+	/**
+	 * Create the VFS backing a FileListFragment. Also called by fragments
+	 * recreated after a configuration change.
+	 *
+	 * @return
+	 */
+	public VFS getVFS() {
+		LocalVFS vfs = new LocalVFS(mFolderBrowser);
+		if (getIntent().getBooleanExtra(EXTRA_PERSISTENT_INDEX, false)) {
+			vfs.setDirectoryIndex(DirectoryIndex.getInstance(this));
+		}
+		vfs.setFilter(getScanFilter());
+		return vfs;
+	}
+
+	/**
+	 * Get the filter deciding which entries of a directory are listed.
+	 * Override to narrow it down further.
+	 *
+	 * Files are filtered by the requested MIME types, compiled once into
+	 * the set of matching extensions, so other files are rejected by name
+	 * before they are stat'ed.
+	 *
+	 * @return
+	 */
+	protected ScanFilter getScanFilter() {
+		if (mScanFilter != null)
+			return mScanFilter;
+
+		ScanFilter filter = ScanFilter.DEFAULT.withHidden(getIntent().getBooleanExtra(EXTRA_SHOW_HIDDEN, false));
+		String[] patterns = getMimeTypePatterns();
+		if (patterns.length > 0) {
+			MimeTypes mimeTypes = MimeTypes.getInstance(this);
+			Set<String> extensions = mimeTypes.getExtensions(patterns);
+			if (extensions != null && !extensions.isEmpty()) {
+				filter = filter.withExtensions(extensions);
+			} else if (extensions != null) {
+				// No known extension, look each name up instead
+				filter = filter.withMimeTypes(mimeTypes, patterns);
+			}
+		}
+		mScanFilter = filter;
+		return filter;
+	}
+
+	/**
+	 * @return The lower case MIME types the caller accepts, empty for any.
+	 */
+	private String[] getMimeTypePatterns() {
+		String[] types = getIntent().getStringArrayExtra(EXTRA_MIME_TYPES);
+		if (types == null || types.length == 0) {
+			String type = getIntent().getType();
+			types = type == null ? new String[0] : new String[] { type };
+		}
+
+		List<String> patterns = new ArrayList<String>(types.length);
+		for (String type : types) {
+			if (type != null && type.length() > 0)
+				patterns.add(type.toLowerCase());
+		}
+		return patterns.toArray(new String[patterns.size()]);
+	}
+
+	/**
+	 * Create the VFS backing a FileListFragment of search results.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public VFS getSearchVFS(String query) {
+		return new SearchVFS(mFolderBrowser, query, getScanFilter());
+	}
+
+	/**
+	 * Create the VFS backing the FileListFragment of all storage volumes.
+	 *
+	 * @return
+	 */
+	public VFS getVolumesVFS() {
+		return new VolumesVFS(mFolderBrowser, getScanFilter());
+	}
+
+	/**
+	 * Create the VFS backing a FileListFragment of an archive's entries.
+	 *
+	 * @param archive The absolute path of the archive.
+	 * @return
+	 */
+	public VFS getArchiveVFS(String archive) {
+		return new ArchiveVFS(new File(archive), getScanFilter());
+	}
+
+	/**
+	 * Create the VFS backing a FileListFragment of a provider directory.
+	 *
+	 * @param authority
+	 * @param treeDocumentId The granted tree the directory is in, null for
+	 *            none.
+	 * @param documentId The directory document.
+	 * @return
+	 */
+	public VFS getProviderVFS(String authority, String treeDocumentId, String documentId) {
+		return new ProviderVFS(authority, treeDocumentId, documentId, mFolderBrowser);
+	}
+}
@@ -22,53 +22,96 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.ipaulpro.afilechooser.utils.ChildDirectoryCache;
+import com.ipaulpro.afilechooser.utils.DirectorySizer;
+import com.ipaulpro.afilechooser.utils.FileSorter;
 import com.ipaulpro.afilechooser.utils.FileUtils;
+import com.ipaulpro.afilechooser.utils.MimeTypes;
+import com.ipaulpro.afilechooser.utils.ThumbnailLoader;
 
 import java.io.File;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * List adapter for Files.
  * 
+ * The listing can be narrowed to the names containing a query through
+ * {@link #getFilter()}. Each keystroke that extends the query only looks at
+ * the matches of the previous one.
+ * 
+ * Directory rows show the totals computed by the {@link DirectorySizer},
+ * once they are known, and the folder icon with folders once the
+ * {@link ChildDirectoryCache} found child directories. Images and videos show their thumbnail, loaded by
+ * the {@link ThumbnailLoader}.
+ * 
  * @version 2013-06-25
  * 
  * @author paulburke (ipaulpro)
  *
  */
-public class FileListAdapter extends BaseAdapter {
+public class FileListAdapter extends BaseAdapter implements Filterable,
+		DirectorySizer.Listener, ChildDirectoryCache.Listener {
 
 	private final static int ICON_FOLDER_WITH_FOLDERS = R.drawable.ic_folder_with_folders;
 	private final static int ICON_FOLDER = R.drawable.ic_folder;
 	private final static int ICON_FILE = R.drawable.ic_file;
 
 	private List<VFile> mVFiles = new ArrayList<VFile>();
+	/** The unfiltered listing, read by the filter thread. */
+	private volatile List<VFile> mAllVFiles;
+	/** The query the shown listing was filtered with, null if none. */
+	private CharSequence mConstraint;
+	private NameFilter mFilter;
 
+	private final Context mContext;
 	private final LayoutInflater mInflater;
+	private final MimeTypes mMimeTypes;
+	private final ThumbnailLoader mThumbnailLoader;
     private VFS mVFS;
 
     public FileListAdapter(Context context) {
+		mContext = context;
 		mInflater = LayoutInflater.from(context);
+		mMimeTypes = MimeTypes.getInstance(context);
+		mThumbnailLoader = ThumbnailLoader.getInstance(context);
 	}
 
-    @Override
-    public void notifyDataSetChanged() {
-        mVFiles = mVFS.getVFiles();
-        super.notifyDataSetChanged();
-    }
+	@Override
+	public void notifyDataSetChanged() {
+		mAllVFiles = mVFS.getVFiles();
+		if (mConstraint != null) {
+			// Keep showing the old matches until the new listing is filtered
+			getFilter().filter(mConstraint);
+			return;
+		}
+		mVFiles = mAllVFiles;
+		super.notifyDataSetChanged();
+	}
 
-    @Override
-    public void notifyDataSetInvalidated() {
-        mVFiles = null;
-        super.notifyDataSetInvalidated();
-    }
+	@Override
+	public void notifyDataSetInvalidated() {
+		mAllVFiles = null;
+		mVFiles = null;
+		super.notifyDataSetInvalidated();
+	}
 
-    private boolean isVirtual( int aPosition ) {
-        return false; // TODO
-    }
+	@Override
+	public Filter getFilter() {
+		if (mFilter == null)
+			mFilter = new NameFilter();
+		return mFilter;
+	}
+
+	private boolean isVirtual( int aPosition ) {
+		return ((VFile) getItem(aPosition)).getType() != VFile.PHYSICAL_FILE;
+	}
 
 	@Override
     public int getCount() {
@@ -103,7 +146,7 @@ public class FileListAdapter extends BaseAdapter {
 		}
 
 		// Get the file at the current position
-		final File file = (File) getItem(position);
+		final VFile file = (VFile) getItem(position);
 
 		// Set the TextView as the file name
 		holder.nameView.setText(file.getName());
@@ -114,22 +157,155 @@ public class FileListAdapter extends BaseAdapter {
 
 		// If the item is not a directory, use the file icon
 //		holder.iconView.setImageResource(file.isDirectory() ? ICON_FOLDER : ICON_FILE);
-		int resId = file.isDirectory() ? ( FileUtils.hasChildDirectories(file) ? ICON_FOLDER_WITH_FOLDERS : ICON_FOLDER) : ICON_FILE ;
+		int resId = file.isDirectory() ? ( file.hasChildDirectories() ? ICON_FOLDER_WITH_FOLDERS : ICON_FOLDER) : ICON_FILE ;
 		holder.iconView.setImageResource( resId );
 
+		// Replaces the icon once loaded, and drops the request of the
+		// file this row showed before
+		if (file.isFile() && file.getType() == VFile.PHYSICAL_FILE
+				&& ThumbnailLoader.isSupported(mMimeTypes.getMimeType(file.getName())))
+			mThumbnailLoader.load(file, holder.iconView);
+		else
+			mThumbnailLoader.cancel(holder.iconView);
+
+		final DirectorySizer.Totals totals = file.isDirectory() ? DirectorySizer.peek(file) : null;
+		String details = totals == null ? null : mContext.getString(R.string.directory_details,
+				FileUtils.getReadableFileSize(totals.size), totals.count);
+		if (file instanceof VolumeFile) {
+			// Entries of different volumes may have the same name
+			final String volume = mContext.getString(R.string.volume_details,
+					((VolumeFile) file).getVolume().getAbsolutePath());
+			details = details == null ? volume : volume + ", " + details;
+		}
+		holder.detailsView.setText(details);
+
 		return row;
 	}
 
+	@Override
+	public void onTotalsComputed(File dir, DirectorySizer.Totals totals) {
+		// Only the rows change, the listing stays the same
+		super.notifyDataSetChanged();
+	}
+
+	@Override
+	public void onChildDirectoriesFound() {
+		super.notifyDataSetChanged();
+	}
+
     public void setVFS(VFS aVFS) {
         this.mVFS = aVFS;
     }
 
+	/**
+	 * Case insensitive substring filter over the sort keys, which are the
+	 * lower-cased names computed once when the listing was loaded.
+	 */
+	private class NameFilter extends Filter {
+		// Only touched on the filter thread
+		private List<VFile> mSource;
+		private String mLastQuery;
+		private int[] mLastMatches;
+		private int mLastCount;
+
+		@Override
+		protected FilterResults performFiltering(CharSequence constraint) {
+			final List<VFile> source = mAllVFiles;
+			final FilterResults results = new FilterResults();
+
+			if (source == null || constraint == null || constraint.length() == 0) {
+				mSource = null;
+				mLastQuery = null;
+				mLastMatches = null;
+				results.values = source;
+				results.count = source == null ? 0 : source.size();
+				return results;
+			}
+
+			final String query = FileSorter.getKey(constraint.toString());
+			int[] matches;
+			int count = 0;
+			if (source == mSource && query.contains(mLastQuery)) {
+				// Whatever contains the new query contained the last one
+				matches = new int[mLastCount];
+				for (int i = 0; i < mLastCount; i++) {
+					final int position = mLastMatches[i];
+					if (source.get(position).getSortKey().contains(query))
+						matches[count++] = position;
+				}
+			} else {
+				final int size = source.size();
+				matches = new int[size];
+				for (int i = 0; i < size; i++) {
+					if (source.get(i).getSortKey().contains(query))
+						matches[count++] = i;
+				}
+			}
+
+			// Published results share the array, it is never written again
+			mSource = source;
+			mLastQuery = query;
+			mLastMatches = matches;
+			mLastCount = count;
+
+			results.values = new FilteredList(source, matches, count);
+			results.count = count;
+			return results;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		protected void publishResults(CharSequence constraint, FilterResults results) {
+			mConstraint = constraint == null || constraint.length() == 0 ? null : constraint;
+
+			final List<VFile> files = (List<VFile>) results.values;
+			final List<VFile> source = files instanceof FilteredList ? ((FilteredList) files).mSource : files;
+			if (source != mAllVFiles) {
+				// The listing was reloaded in the meantime
+				filter(constraint);
+				return;
+			}
+
+			mVFiles = files;
+			FileListAdapter.super.notifyDataSetChanged();
+		}
+	}
+
+	/**
+	 * Read-only view of the matching positions of a listing.
+	 */
+	private static class FilteredList extends AbstractList<VFile> {
+		final List<VFile> mSource;
+		private final int[] mPositions;
+		private final int mSize;
+
+		FilteredList(List<VFile> source, int[] positions, int size) {
+			mSource = source;
+			mPositions = positions;
+			mSize = size;
+		}
+
+		@Override
+		public VFile get(int location) {
+			if (location >= mSize)
+				throw new IndexOutOfBoundsException();
+			return mSource.get(mPositions[location]);
+		}
+
+		@Override
+		public int size() {
+			return mSize;
+		}
+	}
+
     static class ViewHolder {
 		TextView nameView;
 		ImageView iconView;
+		TextView detailsView;
 
 		ViewHolder(View row) {
 			nameView = (TextView) row.findViewById(R.id.file_name);
+			detailsView = (TextView) row.findViewById(R.id.file_details);
 			iconView = (ImageView) row.findViewById(R.id.file_icon);
 		}
 	}
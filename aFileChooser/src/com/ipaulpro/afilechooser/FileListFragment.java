@@ -21,11 +21,19 @@ import android.os.Bundle;
 import android.os.Environment;
 import android.support.v4.app.ListFragment;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.ListView;
 
+import com.ipaulpro.afilechooser.utils.ChildDirectoryCache;
+import com.ipaulpro.afilechooser.utils.DirectorySizer;
+import com.ipaulpro.afilechooser.utils.FileSorter;
+import com.ipaulpro.afilechooser.utils.ListingPrefetcher;
+
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Fragment that displays a list of Files in a given path.
@@ -39,11 +47,26 @@ public class FileListFragment extends ListFragment {
 
 	private static final int VFS_LOADER_IDS = 1000;
 
+	/** Rows assumed visible before the list has been laid out. */
+	private static final int DEFAULT_VISIBLE_ROWS = 12;
+
 
     private FileListAdapter mAdapter;
 	private String mPath;
 	private boolean mFolderBrowser ;
+	/** Non-null if this fragment lists search results. */
+	private String mQuery;
+	/** Non-null if this fragment lists a directory inside this archive. */
+	private String mArchive;
+	/** Non-null if this fragment lists a directory document of this provider. */
+	private String mAuthority;
+	private String mTreeDocumentId;
+	private String mDocumentId;
+	/** Whether this fragment lists the roots of all storage volumes. */
+	private boolean mVolumes;
     private VFS mVFS;
+	/** Scroll position to restore once the retained listing is shown. */
+	private ListingRetainFragment.Level mRestoreLevel;
 
     /**
      * Create a new instance with the given file path.
@@ -63,6 +86,61 @@ public class FileListFragment extends ListFragment {
         return fragment;
     }
 
+	/**
+	 * Create a new instance listing a directory inside an archive.
+	 *
+	 * @param path The pseudo path of the directory: the archive's path
+	 *            followed by the directory inside it.
+	 * @param archive The absolute path of the archive.
+	 */
+	public static FileListFragment newArchiveInstance(String path, boolean folderBrowser,
+			String archive, VFS aVFS) {
+		FileListFragment fragment = newInstance(path, folderBrowser, aVFS);
+		fragment.getArguments().putString(FileChooserActivity.ARG_ARCHIVE, archive);
+		return fragment;
+	}
+
+	/**
+	 * Create a new instance listing a directory document of a documents
+	 * provider.
+	 *
+	 * @param path The pseudo path of the directory, for the title.
+	 * @param treeDocumentId The granted tree the directory is in, null for
+	 *            none.
+	 */
+	public static FileListFragment newProviderInstance(String path, boolean folderBrowser,
+			String authority, String treeDocumentId,
+			String documentId, VFS aVFS) {
+		FileListFragment fragment = newInstance(path, folderBrowser, aVFS);
+		fragment.getArguments().putString(FileChooserActivity.ARG_AUTHORITY, authority);
+		fragment.getArguments().putString(FileChooserActivity.ARG_TREE_DOCUMENT_ID, treeDocumentId);
+		fragment.getArguments().putString(FileChooserActivity.ARG_DOCUMENT_ID, documentId);
+		return fragment;
+	}
+
+	/**
+	 * Create a new instance listing the roots of all mounted storage
+	 * volumes.
+	 *
+	 * @param path The pseudo path of the listing, for the title.
+	 */
+	public static FileListFragment newVolumesInstance(String path, boolean folderBrowser, VFS aVFS) {
+		FileListFragment fragment = newInstance(path, folderBrowser, aVFS);
+		fragment.getArguments().putBoolean(FileChooserActivity.ARG_VOLUMES, true);
+		return fragment;
+	}
+
+	/**
+	 * Create a new instance listing the files under the given path whose
+	 * name contains the query.
+	 */
+	public static FileListFragment newSearchInstance(String path, boolean folderBrowser,
+			String query, VFS aVFS) {
+		FileListFragment fragment = newInstance(path, folderBrowser, aVFS);
+		fragment.getArguments().putString(FileChooserActivity.ARG_QUERY, query);
+		return fragment;
+	}
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -72,6 +150,12 @@ public class FileListFragment extends ListFragment {
 				FileChooserActivity.PATH) : Environment
 				.getExternalStorageDirectory().getAbsolutePath();
 		mFolderBrowser = getArguments() == null ? false : getArguments().getBoolean(FileChooserActivity.ARG_FOLDER_BROWSER);
+		mQuery = getArguments() == null ? null : getArguments().getString(FileChooserActivity.ARG_QUERY);
+		mArchive = getArguments() == null ? null : getArguments().getString(FileChooserActivity.ARG_ARCHIVE);
+		mAuthority = getArguments() == null ? null : getArguments().getString(FileChooserActivity.ARG_AUTHORITY);
+		mTreeDocumentId = getArguments() == null ? null : getArguments().getString(FileChooserActivity.ARG_TREE_DOCUMENT_ID);
+		mDocumentId = getArguments() == null ? null : getArguments().getString(FileChooserActivity.ARG_DOCUMENT_ID);
+		mVolumes = getArguments() == null ? false : getArguments().getBoolean(FileChooserActivity.ARG_VOLUMES);
 	}
 
 	@Override
@@ -82,44 +166,184 @@ public class FileListFragment extends ListFragment {
 		
 		this.getListView().setLongClickable(true);
 		this.getListView().setOnItemLongClickListener(new OnItemLongClickListener() {
-            @Override
-            public boolean onItemLongClick(AdapterView<?> parent, View v, int position, long id) {
-                FileChooserActivity.finishWithResult(getActivity(), (File) mAdapter.getItem(position));
-                return true;
-            }
-        });
-
-        mVFS.setObserver(new DataSetObserver() {
-            @Override
-            public void onChanged() {
-                if (isResumed())
-                    setListShown(true);
-                else
-                    setListShownNoAnimation(true);
-                mAdapter.notifyDataSetChanged();
-            }
-
-            @Override
-            public void onInvalidated() {
-                mAdapter.notifyDataSetInvalidated();
-            }
-        });
-        mVFS.onActivityCreated(getActivity(), getLoaderManager(), VFS_LOADER_IDS, mPath);
-
-        mAdapter.setVFS(mVFS);
+			@Override
+			public boolean onItemLongClick(AdapterView<?> parent, View v, int position, long id) {
+				getFileChooserActivity().onFileLongPressed((File) mAdapter.getItem(position));
+				return true;
+			}
+		});
+
+		if (mVFS == null) {
+			// Recreated by the framework, e.g. after a configuration change
+			if (mQuery != null)
+				mVFS = getFileChooserActivity().getSearchVFS(mQuery);
+			else if (mArchive != null)
+				mVFS = getFileChooserActivity().getArchiveVFS(mArchive);
+			else if (mAuthority != null)
+				mVFS = getFileChooserActivity().getProviderVFS(mAuthority, mTreeDocumentId, mDocumentId);
+			else if (mVolumes)
+				mVFS = getFileChooserActivity().getVolumesVFS();
+			else
+				mVFS = getFileChooserActivity().getVFS();
+		}
+		mAdapter.setVFS(mVFS);
+
+		mVFS.setObserver(new DataSetObserver() {
+			@Override
+			public void onChanged() {
+				if (isResumed())
+					setListShown(true);
+				else
+					setListShownNoAnimation(true);
+				mAdapter.notifyDataSetChanged();
+				showError();
+				restoreScrollPosition();
+				prefetchVisibleDirectories();
+				sizeVisibleDirectories();
+				probeVisibleDirectories();
+			}
+
+			@Override
+			public void onInvalidated() {
+				mAdapter.notifyDataSetInvalidated();
+			}
+		});
+		final ListingRetainFragment.Level level = getFileChooserActivity().getListingRetainer().get(mPath);
+		if (level != null && mVFS instanceof LocalVFS) {
+			mRestoreLevel = level;
+			((LocalVFS) mVFS).restore(level.files);
+		}
+
+		mVFS.onActivityCreated(getActivity(), getLoaderManager(), VFS_LOADER_IDS, mPath);
+
+		getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+				if (scrollState == SCROLL_STATE_IDLE) {
+					prefetchVisibleDirectories();
+					sizeVisibleDirectories();
+					probeVisibleDirectories();
+				}
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+					int totalItemCount) {
+			}
+		});
+
 		super.onActivityCreated(savedInstanceState);
 	}
 
+	@Override
+	public void onDestroyView() {
+		// Keep this level around for when the user comes back. Search
+		// results are not a listing of mPath.
+		final List<VFile> files = mVFS instanceof LocalVFS ? mVFS.getVFiles() : null;
+		if (files != null) {
+			final ListView listView = getListView();
+			final View first = listView.getChildAt(0);
+			getFileChooserActivity().getListingRetainer().put(mPath, files,
+					listView.getFirstVisiblePosition(), first == null ? 0 : first.getTop());
+		}
+		super.onDestroyView();
+	}
+
 	@Override
 	public void onListItemClick(ListView l, View v, int position, long id) {
 		FileListAdapter adapter = (FileListAdapter) l.getAdapter();
 		if (adapter != null) {
 			File file = (File) adapter.getItem(position);
-			mPath = file.getAbsolutePath();
 			((FileChooserActivity) getActivity()).onFileSelected(file);
 		}
 	}
 
+	/**
+	 * Tell why a provider directory is empty, if it couldn't be listed.
+	 */
+	private void showError() {
+		final Exception error = mVFS instanceof ProviderVFS ? ((ProviderVFS) mVFS).getError() : null;
+		if (error instanceof SecurityException)
+			setEmptyText(getString(R.string.documents_access_denied));
+		else if (error != null)
+			setEmptyText(getString(R.string.documents_error));
+		else
+			setEmptyText(getString(R.string.empty_directory));
+	}
+
+	private void restoreScrollPosition() {
+		final ListingRetainFragment.Level level = mRestoreLevel;
+		if (level == null)
+			return;
+		mRestoreLevel = null;
+		if (level.position < mAdapter.getCount())
+			getListView().setSelectionFromTop(level.position, level.top);
+	}
+
+	/**
+	 * Warm the listing cache with the directories the user can see, they
+	 * are the likely next stops.
+	 */
+	private void prefetchVisibleDirectories() {
+		if (!(mVFS instanceof LocalVFS))
+			return;
+		ListingPrefetcher.prefetch(getVisibleFiles(), mFolderBrowser, FileSorter.SORT_NAME,
+				getFileChooserActivity().getScanFilter());
+	}
+
+	/**
+	 * Compute the totals shown next to the directories the user can see.
+	 */
+	private void sizeVisibleDirectories() {
+		final List<VFile> physical = new ArrayList<VFile>();
+		for (VFile file : getVisibleFiles()) {
+			if (file.getType() == VFile.PHYSICAL_FILE)
+				physical.add(file);
+		}
+		DirectorySizer.request(physical, mAdapter);
+	}
+
+	/**
+	 * Find out which of the directories the user can see have child
+	 * directories, for their icons.
+	 */
+	private void probeVisibleDirectories() {
+		ChildDirectoryCache.request(getVisibleFiles(), mAdapter);
+	}
+
+	private List<VFile> getVisibleFiles() {
+		final int count = mAdapter.getCount();
+		final ListView listView = getListView();
+		final int first = Math.max(listView.getFirstVisiblePosition(), 0);
+		int last = listView.getLastVisiblePosition();
+		if (last < first)
+			last = first + DEFAULT_VISIBLE_ROWS;
+		last = Math.min(last, count - 1);
+
+		final List<VFile> visible = new ArrayList<VFile>();
+		for (int i = first; i <= last; i++)
+			visible.add((VFile) mAdapter.getItem(i));
+		return visible;
+	}
+
+	/**
+	 * @return Whether this fragment lists search results.
+	 */
+	public boolean isSearch() {
+		return mQuery != null;
+	}
+
+	/**
+	 * Search for another query, only valid if {@link #isSearch()}.
+	 */
+	public void setQuery(String query) {
+		mQuery = query;
+		// Keep the arguments current for when the fragment is recreated
+		getArguments().putString(FileChooserActivity.ARG_QUERY, query);
+		if (mVFS instanceof SearchVFS)
+			((SearchVFS) mVFS).setQuery(query);
+	}
+
     public void setVFS(VFS mVFS) {
         this.mVFS = mVFS;
     }
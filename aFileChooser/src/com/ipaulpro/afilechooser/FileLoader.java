@@ -17,79 +17,290 @@
 package com.ipaulpro.afilechooser;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.content.Context;
 import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.AsyncTaskLoader;
 
-import com.ipaulpro.afilechooser.utils.FileUtils;
+import com.ipaulpro.afilechooser.utils.DirectoryIndex;
+import com.ipaulpro.afilechooser.utils.FileScanner;
+import com.ipaulpro.afilechooser.utils.FileSorter;
+import com.ipaulpro.afilechooser.utils.ListingCache;
+import com.ipaulpro.afilechooser.utils.ScanFilter;
 
 /**
- * Loader that returns a list of Files in a given file path.
+ * Loader that returns a list of VFile snapshots in a given file path.
+ * 
+ * Listings are kept in the {@link ListingCache}. A cached listing is
+ * delivered right away and then revalidated against the directory's
+ * modification time, which only costs a rescan if the directory changed.
+ * 
+ * With a {@link DirectoryIndex}, listings also survive the process: an
+ * indexed listing with an unchanged modification time is served without a
+ * scan.
+ * 
+ * Large directories are streamed: partial, already sorted listings are
+ * delivered while the scan is still running, see {@link #setBatchSize(int)}.
+ * 
+ * Once loaded, changes reported by the FileObserver are applied to the
+ * sorted list one entry at a time instead of rescanning the directory.
+ * Events are coalesced for {@link #UPDATE_DELAY_MS}, so a file that is
+ * still being written is only stat'ed once per window. Events arriving
+ * while a load runs are held back and replayed on its complete listing, and
+ * updated listings go back to the cache.
+ * 
+ * Entries are kept or dropped by a {@link ScanFilter}. Listings are cached
+ * with the filter's name predicates applied only, so changing its size or
+ * date ranges, or narrowing it, re-filters the cached listing instead of
+ * rescanning the directory. Listings of the default name predicates, as
+ * prefetched or indexed, are re-filtered the same way.
  * 
  * @version 2012-10-28
  * 
  * @author paulburke (ipaulpro)
  * 
  */
-public class FileLoader extends AsyncTaskLoader<List<File>> {
+public class FileLoader extends AsyncTaskLoader<List<VFile>> {
 
 	private static final int FILE_OBSERVER_MASK = FileObserver.CREATE
 			| FileObserver.DELETE | FileObserver.DELETE_SELF
 			| FileObserver.MOVED_FROM | FileObserver.MOVED_TO
-			| FileObserver.MODIFY | FileObserver.MOVE_SELF;
-	
+			| FileObserver.MODIFY | FileObserver.CLOSE_WRITE
+			| FileObserver.MOVE_SELF;
+
+	/** Entries in the first batch of a streamed scan. */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/** How long FileObserver events are collected before being applied. */
+	private static final long UPDATE_DELAY_MS = 250;
+
+	/** Applies incremental updates, one loader at a time. */
+	private static final ExecutorService sUpdateExecutor = Executors.newSingleThreadExecutor();
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Set<String> mChangedNames = new LinkedHashSet<String>();
+	private boolean mUpdateScheduled;
+
 	private FileObserver mFileObserver;
 	
-	private List<File> mData;
+	private List<VFile> mData;
 	private String mPath;
 	private boolean mFolderBrowser;
+	private int mSortOrder;
+	private int mBatchSize = DEFAULT_BATCH_SIZE;
+	private DirectoryIndex mDirectoryIndex;
+	private volatile ScanFilter mFilter = ScanFilter.DEFAULT;
+	/** The name predicates of the last listing this loader scanned. */
+	private volatile ScanFilter mScannedFilter;
+	/**
+	 * Whether mData is a partial listing of a scan still in progress, or a
+	 * cached listing that was not revalidated yet.
+	 */
+	private boolean mDataPartial;
+
+	/** The scan in progress, whose partial results are still wanted. */
+	private volatile FileScanner mScanner;
 
 	public FileLoader(Context context, String path, boolean folderBrowser ) {
+		this(context, path, folderBrowser, FileSorter.SORT_NAME);
+	}
+
+	public FileLoader(Context context, String path, boolean folderBrowser, int sortOrder ) {
 		super(context);
 		this.mPath = path;
 		this.mFolderBrowser = folderBrowser;
+		this.mSortOrder = sortOrder;
+	}
+
+	/**
+	 * Set the number of entries scanned before the first partial listing is
+	 * delivered. Later batches double in size.
+	 * 
+	 * @param batchSize 0 to only deliver the complete listing.
+	 */
+	public void setBatchSize(int batchSize) {
+		mBatchSize = batchSize;
+	}
+
+	/**
+	 * Serve and store listings through a persistent index.
+	 * 
+	 * @param index null to only use the in-memory cache.
+	 */
+	public void setDirectoryIndex(DirectoryIndex index) {
+		mDirectoryIndex = index;
+	}
+
+	/**
+	 * Change which entries are listed. Reloads from the cached listing if
+	 * the filter only differs in its stat predicates or narrows the one last
+	 * scanned, and rescans otherwise.
+	 * 
+	 * @param filter
+	 */
+	public void setFilter(ScanFilter filter) {
+		if (filter.equals(mFilter))
+			return;
+		mFilter = filter;
+		onContentChanged();
 	}
 
 	@Override
-	public List<File> loadInBackground() {
-		return FileUtils.getFileList(mPath, mFolderBrowser);
+	public List<VFile> loadInBackground() {
+		final ScanFilter filter = mFilter;
+		final ScanFilter nameFilter = filter.getNameFilter();
+		final String nameKey = nameFilter.getNameKey();
+
+		final File dir = new File(mPath);
+		final long lastModified = dir.lastModified();
+		List<VFile> cached = ListingCache.get(mPath, mFolderBrowser, mSortOrder, nameKey, lastModified);
+		if (cached == null) {
+			final List<VFile> wider = getWiderListing(filter, dir, lastModified);
+			if (wider != null) {
+				cached = nameFilter.apply(wider);
+				ListingCache.put(mPath, mFolderBrowser, mSortOrder, nameKey, lastModified, cached);
+			}
+		}
+		if (cached != null)
+			return filter.apply(cached);
+
+		// The index only holds listings of the default name predicates
+		final DirectoryIndex index = nameKey.length() == 0 ? mDirectoryIndex : null;
+		final FileScanner scanner = new FileScanner(dir, mFolderBrowser, mSortOrder, nameFilter);
+		mScanner = scanner;
+
+		final List<VFile> files = scanner.scan(mBatchSize, new FileScanner.Listener() {
+			@Override
+			public void onPartialResult(List<VFile> files) {
+				final List<VFile> filtered = filter.apply(files);
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						// Skip stale batches of a scan that was superseded
+						if (mScanner == scanner && !scanner.isCanceled() && isStarted())
+							deliverPartialResult(filtered);
+					}
+				});
+			}
+		});
+
+		if (files == null)
+			return null;
+		ListingCache.put(mPath, mFolderBrowser, mSortOrder, nameKey, lastModified, files);
+		if (index != null)
+			index.write(dir, mFolderBrowser, mSortOrder, lastModified, files);
+		mScannedFilter = nameFilter;
+		return filter.apply(files);
+	}
+
+	/**
+	 * Find a valid listing scanned with name predicates the filter narrows:
+	 * the one this loader scanned last, or the default one, which is what
+	 * the prefetcher and the index hold.
+	 * 
+	 * @return The wider listing, or null.
+	 */
+	private List<VFile> getWiderListing(ScanFilter filter, File dir, long lastModified) {
+		final ScanFilter scanned = mScannedFilter;
+		if (scanned != null && filter.narrows(scanned)) {
+			final List<VFile> wider = ListingCache.get(mPath, mFolderBrowser, mSortOrder,
+					scanned.getNameKey(), lastModified);
+			if (wider != null)
+				return wider;
+		}
+		if (!filter.narrows(ScanFilter.DEFAULT))
+			return null;
+
+		final String defaultKey = ScanFilter.DEFAULT.getNameKey();
+		List<VFile> wider = ListingCache.get(mPath, mFolderBrowser, mSortOrder, defaultKey, lastModified);
+		final DirectoryIndex index = mDirectoryIndex;
+		if (wider == null && index != null) {
+			wider = index.read(dir, mFolderBrowser, mSortOrder, lastModified);
+			if (wider != null)
+				ListingCache.put(mPath, mFolderBrowser, mSortOrder, defaultKey, lastModified, wider);
+		}
+		return wider;
 	}
 
+	/**
+	 * Also stop the scan itself, so abandoned work doesn't compete for I/O
+	 * with the next one.
+	 */
 	@Override
-	public void deliverResult(List<File> data) {
+	public boolean cancelLoad() {
+		final FileScanner scanner = mScanner;
+		if (scanner != null)
+			scanner.cancel();
+		return super.cancelLoad();
+	}
+
+	@Override
+	public void deliverResult(List<VFile> data) {
 		if (isReset()) {
 			onReleaseResources(data);
 			return;
 		}
 
-		List<File> oldData = mData;
+		List<VFile> oldData = mData;
 		mData = data;
+		mDataPartial = false;
 		
 		if (isStarted())
 			super.deliverResult(data);
 
 		if (oldData != null && oldData != data)
 			onReleaseResources(oldData);
+
+		// Replay the changes held back while the listing was partial
+		synchronized (mChangedNames) {
+			if (data == null || mChangedNames.isEmpty() || mUpdateScheduled)
+				return;
+			mUpdateScheduled = true;
+		}
+		mHandler.post(mScheduleUpdate);
+	}
+
+	private void deliverPartialResult(List<VFile> data) {
+		deliverResult(data);
+		mDataPartial = true;
 	}
 
 	@Override
 	protected void onStartLoading() {
-		if (mData != null)
+		if (mData != null) {
 			deliverResult(mData);
+		} else {
+			// Render from memory, the load below revalidates
+			final ScanFilter filter = mFilter;
+			List<VFile> cached = ListingCache.peek(mPath, mFolderBrowser, mSortOrder,
+					filter.getNameFilter().getNameKey());
+			if (cached == null && filter.narrows(ScanFilter.DEFAULT))
+				cached = ListingCache.peek(mPath, mFolderBrowser, mSortOrder, ScanFilter.DEFAULT.getNameKey());
+			if (cached != null)
+				deliverPartialResult(filter.apply(cached));
+		}
 
 		if (mFileObserver == null) {
 			mFileObserver = new FileObserver(mPath, FILE_OBSERVER_MASK) {
 				@Override
 				public void onEvent(int event, String path) {
-					onContentChanged();	
+					onFileEvent(event, path);
 				}
 			};
 		}
 		mFileObserver.startWatching();
 		
-		if (takeContentChanged() || mData == null)
+		// A partial listing means the scan was stopped before it completed
+		// or the listing came from the cache
+		if (takeContentChanged() || mData == null || mDataPartial)
 			forceLoad();
 	}
 
@@ -102,6 +313,17 @@ public class FileLoader extends AsyncTaskLoader<List<File>> {
 	protected void onReset() {
 		onStopLoading();
 
+		if (mFileObserver != null) {
+			mFileObserver.stopWatching();
+			mFileObserver = null;
+		}
+
+		mHandler.removeCallbacks(mScheduleUpdate);
+		synchronized (mChangedNames) {
+			mChangedNames.clear();
+			mUpdateScheduled = false;
+		}
+
 		if (mData != null) {
 			onReleaseResources(mData);
 			mData = null;
@@ -109,17 +331,146 @@ public class FileLoader extends AsyncTaskLoader<List<File>> {
 	}
 
 	@Override
-	public void onCanceled(List<File> data) {
+	public void onCanceled(List<VFile> data) {
 		super.onCanceled(data);
 
 		onReleaseResources(data);
 	}
 
-	protected void onReleaseResources(List<File> data) {
-		
-		if (mFileObserver != null) {
-			mFileObserver.stopWatching();
-			mFileObserver = null;
+	protected void onReleaseResources(List<VFile> data) {
+		// For a simple List<> there is nothing to do. The FileObserver keeps
+		// watching until the loader is reset, so replacing the list with an
+		// updated one must not stop it.
+	}
+
+	/**
+	 * Called on the FileObserver thread.
+	 */
+	private void onFileEvent(int event, String name) {
+		if (name == null || (event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+			// The directory itself changed, start over
+			mHandler.post(mContentChanged);
+			return;
+		}
+
+		synchronized (mChangedNames) {
+			mChangedNames.add(name);
+			if (mUpdateScheduled)
+				return;
+			mUpdateScheduled = true;
+		}
+		mHandler.postDelayed(mScheduleUpdate, UPDATE_DELAY_MS);
+	}
+
+	private final Runnable mContentChanged = new Runnable() {
+		@Override
+		public void run() {
+			onContentChanged();
+		}
+	};
+
+	/**
+	 * Runs on the main thread once the coalescing window is over.
+	 */
+	private final Runnable mScheduleUpdate = new Runnable() {
+		@Override
+		public void run() {
+			final List<VFile> base = mData;
+			if (base == null || mDataPartial) {
+				// The running load may have listed the directory before the
+				// changes, keep them until its complete listing is delivered
+				synchronized (mChangedNames) {
+					mUpdateScheduled = false;
+				}
+				return;
+			}
+
+			final String[] names;
+			synchronized (mChangedNames) {
+				names = mChangedNames.toArray(new String[mChangedNames.size()]);
+				mChangedNames.clear();
+				mUpdateScheduled = false;
+			}
+
+			sUpdateExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final List<VFile> updated = applyChanges(base, names);
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							onChangesApplied(base, updated);
+						}
+					});
+				}
+			});
+		}
+	};
+
+	/**
+	 * Re-stat each changed name and insert, replace or remove its entry.
+	 * The updated listing replaces the cached one, as changes to a file's
+	 * contents don't change the directory's modification time. Runs on the
+	 * update thread.
+	 */
+	private List<VFile> applyChanges(List<VFile> base, String[] names) {
+		final FileSorter sorter = new FileSorter(mSortOrder);
+		final File dir = new File(mPath);
+		// Read first, so a change after the stats below fails revalidation
+		final long lastModified = dir.lastModified();
+		final List<VFile> files = new ArrayList<VFile>(base);
+
+		for (String name : names) {
+			final int index = sorter.indexOf(files, name);
+			if (index >= 0)
+				files.remove(index);
+
+			final VFile file = stat(dir, name);
+			if (file != null)
+				files.add(sorter.insertionPoint(files, file), file);
+		}
+
+		// Only a listing without stat predicates is the cached one
+		final ScanFilter filter = mFilter;
+		if (filter.getNameFilter() == filter) {
+			final String nameKey = filter.getNameKey();
+			ListingCache.put(mPath, mFolderBrowser, mSortOrder, nameKey, lastModified, files);
+			final DirectoryIndex index = mDirectoryIndex;
+			if (index != null && nameKey.length() == 0)
+				index.write(dir, mFolderBrowser, mSortOrder, lastModified, files);
+		}
+		return files;
+	}
+
+	/**
+	 * @return A snapshot of the entry, or null if it is gone or filtered out.
+	 */
+	private VFile stat(File dir, String name) {
+		final ScanFilter filter = mFilter;
+		if (!filter.acceptsName(name) || !new File(dir, name).exists())
+			return null;
+
+		final VFile file = VFile.stat(dir, name);
+		if (file.isDirectory())
+			return file;
+		if (mFolderBrowser || !filter.acceptsFileName(name) || !filter.acceptsFile(file))
+			return null;
+		return file;
+	}
+
+	/**
+	 * Back on the main thread.
+	 */
+	private void onChangesApplied(List<VFile> base, List<VFile> updated) {
+		if (isReset())
+			return;
+
+		if (mData != base) {
+			// A full load replaced the list in the meantime
+			onContentChanged();
+			return;
 		}
+		// Changes are only applied to complete listings
+		deliverResult(updated);
 	}
-}
\ No newline at end of file
+}
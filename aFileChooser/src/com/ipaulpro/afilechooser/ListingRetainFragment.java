@@ -0,0 +1,108 @@
+package com.ipaulpro.afilechooser;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless fragment, retained across configuration changes, that keeps the
+ * sorted listing and scroll position of each back stack level. Going back
+ * renders the previous directory from memory, without any I/O; the loader
+ * then revalidates it.
+ *
+ * Levels are evicted least recently used first once their estimated size
+ * exceeds {@link #MEMORY_BUDGET_BYTES}.
+ */
+public class ListingRetainFragment extends Fragment {
+    public static final String TAG = "ListingRetainFragment";
+
+    public static final long MEMORY_BUDGET_BYTES = 2 * 1024 * 1024;
+
+    /** Rough fixed cost of a VFile, its Strings and list slot. */
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final LinkedHashMap<String, Level> mLevels = new LinkedHashMap<String, Level>(16, 0.75f, true);
+    private long mBytes;
+
+    /**
+     * A retained back stack level.
+     */
+    public static class Level {
+        public final List<VFile> files;
+        /** Adapter position of the first visible row. */
+        public final int position;
+        /** Offset of that row from the top of the list. */
+        public final int top;
+
+        final long bytes;
+
+        Level(List<VFile> files, int position, int top) {
+            this.files = files;
+            this.position = position;
+            this.top = top;
+            this.bytes = estimateBytes(files);
+        }
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+    }
+
+    private static long estimateBytes(List<VFile> files) {
+        long bytes = 0;
+        for (int i = 0, size = files.size(); i < size; i++) {
+            final VFile file = files.get(i);
+            // path, name and sort key chars
+            bytes += ENTRY_OVERHEAD_BYTES + 2 * (file.getPath().length() + 2 * file.getName().length());
+        }
+        return bytes;
+    }
+
+    /**
+     * Keep a level. The list must not be modified afterwards.
+     */
+    public void put(String path, List<VFile> files, int position, int top) {
+        final Level level = new Level(files, position, top);
+        final Level old = mLevels.put(path, level);
+        if (old != null)
+            mBytes -= old.bytes;
+        mBytes += level.bytes;
+
+        final Iterator<Level> eldest = mLevels.values().iterator();
+        while (mBytes > MEMORY_BUDGET_BYTES && eldest.hasNext()) {
+            final Level evicted = eldest.next();
+            if (evicted == level)
+                break;
+            mBytes -= evicted.bytes;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return The retained level, or null.
+     */
+    public Level get(String path) {
+        return mLevels.get(path);
+    }
+
+    /**
+     * Drop every level whose path isn't in paths, e.g. popped levels.
+     */
+    public void retainOnly(Collection<String> paths) {
+        final Iterator<Map.Entry<String, Level>> it = mLevels.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Level> entry = it.next();
+            if (!paths.contains(entry.getKey())) {
+                mBytes -= entry.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+}
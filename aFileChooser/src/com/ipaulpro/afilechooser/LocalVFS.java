@@ -0,0 +1,114 @@
+package com.ipaulpro.afilechooser;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+
+import com.ipaulpro.afilechooser.utils.DirectoryIndex;
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+
+import java.util.List;
+
+/**
+ * VFS over the local file system, backed by a {@link FileLoader}.
+ *
+ * The loader is started through the fragment's {@link LoaderManager}, so it
+ * survives configuration changes and a recreated fragment gets the last
+ * listing back without rescanning.
+ */
+public class LocalVFS implements VFS, LoaderManager.LoaderCallbacks<List<VFile>> {
+    private final boolean mFolderBrowser;
+    private DirectoryIndex mDirectoryIndex;
+    private ScanFilter mFilter = ScanFilter.DEFAULT;
+
+    private Context mContext;
+    private LoaderManager mLoaderManager;
+    private int mLoaderId;
+    private DataSetObserver mObserver;
+    private List<VFile> mVFiles;
+
+    public LocalVFS(boolean folderBrowser) {
+        mFolderBrowser = folderBrowser;
+    }
+
+    /**
+     * @param index Persistent index for the loaders, null for none.
+     */
+    public void setDirectoryIndex(DirectoryIndex index) {
+        mDirectoryIndex = index;
+    }
+
+    /**
+     * Change which entries are listed. The loader re-filters its cached
+     * listing where it can instead of rescanning.
+     */
+    public void setFilter(ScanFilter filter) {
+        mFilter = filter;
+        if (mLoaderManager != null) {
+            Loader<List<VFile>> loader = mLoaderManager.getLoader(mLoaderId);
+            if (loader != null)
+                ((FileLoader) loader).setFilter(filter);
+        }
+    }
+
+    @Override
+    public void setObserver(DataSetObserver aObserver) {
+        mObserver = aObserver;
+    }
+
+    @Override
+    public void onActivityCreated(Context aContext, LoaderManager loaderManager, int startLoaderId, String aPath) {
+        mContext = aContext;
+        mLoaderManager = loaderManager;
+        mLoaderId = startLoaderId;
+
+        Bundle args = new Bundle();
+        args.putString(FileChooserActivity.PATH, aPath);
+        Loader<List<VFile>> loader = loaderManager.initLoader(startLoaderId, args, this);
+        // A retained loader may still use an older filter
+        ((FileLoader) loader).setFilter(mFilter);
+    }
+
+    /**
+     * Show a listing retained from earlier until the loader delivers. Call
+     * before {@link #onActivityCreated}.
+     *
+     * @param files Must not be modified afterwards.
+     */
+    public void restore(List<VFile> files) {
+        if (mVFiles == null) {
+            mVFiles = files;
+            if (mObserver != null)
+                mObserver.onChanged();
+        }
+    }
+
+    @Override
+    public List<VFile> getVFiles() {
+        return mVFiles;
+    }
+
+    @Override
+    public Loader<List<VFile>> onCreateLoader(int id, Bundle args) {
+        FileLoader loader = new FileLoader(mContext, args.getString(FileChooserActivity.PATH), mFolderBrowser);
+        loader.setDirectoryIndex(mDirectoryIndex);
+        loader.setFilter(mFilter);
+        return loader;
+    }
+
+    @Override
+    public void onLoadFinished(Loader<List<VFile>> loader, List<VFile> data) {
+        mVFiles = data;
+        if (mObserver != null)
+            mObserver.onChanged();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<List<VFile>> loader) {
+        mVFiles = null;
+        if (mObserver != null)
+            mObserver.onInvalidated();
+    }
+}
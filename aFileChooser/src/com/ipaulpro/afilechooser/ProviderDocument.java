@@ -0,0 +1,128 @@
+package com.ipaulpro.afilechooser;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Snapshot of a document served by a documents provider.
+ *
+ * Its path is a pseudo path made of display names, for showing only. Use
+ * {@link #getUri()} to get at the content.
+ */
+public class ProviderDocument extends VFile {
+    /** MIME type of directories, as defined by DocumentsContract. */
+    public static final String MIME_TYPE_DIR = "vnd.android.document/directory";
+
+    private final String mAuthority;
+    private final String mTreeDocumentId;
+    private final String mDocumentId;
+    private final String mMimeType;
+    private final int mFlags;
+
+    /**
+     * @param treeDocumentId The tree the document was reached through, null
+     *            if it was reached without one.
+     */
+    public ProviderDocument(File dir, String name, String authority, String treeDocumentId,
+                            String documentId, String mimeType, long length, long lastModified, int flags) {
+        // Whether a directory holds directories is unknown until it is listed
+        super(dir, name, MIME_TYPE_DIR.equals(mimeType), length, lastModified,
+                MIME_TYPE_DIR.equals(mimeType), PROVIDER_DOCUMENT);
+        mAuthority = authority;
+        mTreeDocumentId = treeDocumentId;
+        mDocumentId = documentId;
+        mMimeType = mimeType;
+        mFlags = flags;
+    }
+
+    public String getAuthority() {
+        return mAuthority;
+    }
+
+    /**
+     * @return The document id of the tree granted by ACTION_OPEN_DOCUMENT_TREE,
+     *         or null.
+     */
+    public String getTreeDocumentId() {
+        return mTreeDocumentId;
+    }
+
+    public String getDocumentId() {
+        return mDocumentId;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * @return The provider's flags for the document, as defined by
+     *         DocumentsContract.
+     */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     * @return The content URI of the document, within its tree if it has
+     *         one, so the tree's grant covers it.
+     */
+    public Uri getUri() {
+        if (mTreeDocumentId != null)
+            return buildDocumentUriUsingTree(mAuthority, mTreeDocumentId, mDocumentId);
+        return buildDocumentUri(mAuthority, mDocumentId);
+    }
+
+    /**
+     * Same as DocumentsContract.getTreeDocumentId, which needs API 21.
+     *
+     * @param treeUri As returned by ACTION_OPEN_DOCUMENT_TREE.
+     * @return null if the URI isn't a tree URI.
+     */
+    public static String getTreeDocumentId(Uri treeUri) {
+        final List<String> segments = treeUri.getPathSegments();
+        if (segments.size() < 2 || !"tree".equals(segments.get(0)))
+            return null;
+        return segments.get(1);
+    }
+
+    /**
+     * Same as DocumentsContract.buildDocumentUri, which needs API 19.
+     */
+    public static Uri buildDocumentUri(String authority, String documentId) {
+        return new Uri.Builder().scheme("content").authority(authority)
+                .appendPath("document").appendPath(documentId).build();
+    }
+
+    /**
+     * Same as DocumentsContract.buildDocumentUriUsingTree, which needs API 21.
+     */
+    public static Uri buildDocumentUriUsingTree(String authority, String treeDocumentId,
+                                                String documentId) {
+        return new Uri.Builder().scheme("content").authority(authority)
+                .appendPath("tree").appendPath(treeDocumentId)
+                .appendPath("document").appendPath(documentId).build();
+    }
+
+    /**
+     * Same as DocumentsContract.buildChildDocumentsUriUsingTree, which needs
+     * API 21. Only this form is open to apps without MANAGE_DOCUMENTS.
+     */
+    public static Uri buildChildDocumentsUriUsingTree(String authority, String treeDocumentId,
+                                                      String parentDocumentId) {
+        return new Uri.Builder().scheme("content").authority(authority)
+                .appendPath("tree").appendPath(treeDocumentId)
+                .appendPath("document").appendPath(parentDocumentId).appendPath("children").build();
+    }
+
+    /**
+     * Same as DocumentsContract.buildChildDocumentsUri, which needs API 19.
+     * Providers of other apps only answer it with MANAGE_DOCUMENTS.
+     */
+    public static Uri buildChildDocumentsUri(String authority, String parentDocumentId) {
+        return new Uri.Builder().scheme("content").authority(authority)
+                .appendPath("document").appendPath(parentDocumentId).appendPath("children").build();
+    }
+}
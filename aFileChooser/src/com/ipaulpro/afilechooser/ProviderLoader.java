@@ -0,0 +1,167 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */ 
+
+package com.ipaulpro.afilechooser;
+
+import java.io.File;
+import java.util.List;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.ipaulpro.afilechooser.utils.ProviderListing;
+
+/**
+ * Loader that returns the children of a document of a documents provider,
+ * with one projected query.
+ * 
+ * The rows are copied out of the cursor in the background, see
+ * {@link ProviderListing}. Within a tree granted by ACTION_OPEN_DOCUMENT_TREE
+ * the children are queried through the tree, the only form providers of
+ * other apps answer without MANAGE_DOCUMENTS. A directory that can't be
+ * listed delivers an empty listing holding the error.
+ * 
+ * Listings are cached by document id and shown right away the next time
+ * the directory is opened, while it is queried again.
+ */
+public class ProviderLoader extends AsyncTaskLoader<List<VFile>> {
+	private static final String TAG = "ProviderLoader";
+
+	/** Complete listings kept in memory. */
+	private static final int MAX_CACHED_LISTINGS = 32;
+
+	private static final LruCache<String, List<VFile>> sCache =
+			new LruCache<String, List<VFile>>(MAX_CACHED_LISTINGS);
+
+	private List<VFile> mData;
+	private String mPath;
+	private String mAuthority;
+	private String mTreeDocumentId;
+	private String mDocumentId;
+	private boolean mFolderBrowser;
+	/** Whether mData is a cached listing that was not queried again yet. */
+	private boolean mDataCached;
+
+	/**
+	 * @param path Pseudo path of the directory.
+	 * @param treeDocumentId The granted tree the directory is in, null for
+	 *            none.
+	 */
+	public ProviderLoader(Context context, String path, String authority, String treeDocumentId,
+			String documentId, boolean folderBrowser) {
+		super(context);
+		this.mPath = path;
+		this.mAuthority = authority;
+		this.mTreeDocumentId = treeDocumentId;
+		this.mDocumentId = documentId;
+		this.mFolderBrowser = folderBrowser;
+	}
+
+	private String getKey() {
+		return (mFolderBrowser ? "d" : "f") + mAuthority + '/' + mTreeDocumentId + '/' + mDocumentId;
+	}
+
+	@Override
+	public List<VFile> loadInBackground() {
+		final Uri uri = mTreeDocumentId != null
+				? ProviderDocument.buildChildDocumentsUriUsingTree(mAuthority, mTreeDocumentId, mDocumentId)
+				: ProviderDocument.buildChildDocumentsUri(mAuthority, mDocumentId);
+		try {
+			final Cursor cursor = getContext().getContentResolver().query(uri,
+					ProviderListing.PROJECTION, null, null, null);
+			if (cursor == null)
+				return ProviderListing.failed(new IllegalStateException("No cursor for " + uri));
+			return ProviderListing.read(cursor, new File(mPath), mAuthority, mTreeDocumentId,
+					mFolderBrowser);
+		} catch (RuntimeException e) {
+			// Typically a SecurityException, access to the directory wasn't granted
+			Log.e(TAG, "Unable to list " + uri, e);
+			return ProviderListing.failed(e);
+		}
+	}
+
+	@Override
+	public void deliverResult(List<VFile> data) {
+		if (isReset()) {
+			onReleaseResources(data);
+			return;
+		}
+
+		List<VFile> oldData = mData;
+		mData = data;
+		mDataCached = false;
+
+		if (isStarted())
+			super.deliverResult(data);
+
+		if (oldData != null && oldData != data)
+			onReleaseResources(oldData);
+	}
+
+	@Override
+	protected void onStartLoading() {
+		if (mData != null) {
+			deliverResult(mData);
+		} else {
+			final List<VFile> cached = sCache.get(getKey());
+			if (cached != null) {
+				deliverResult(cached);
+				mDataCached = true;
+			}
+		}
+
+		if (takeContentChanged() || mData == null || mDataCached)
+			forceLoad();
+	}
+
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+
+	@Override
+	protected void onReset() {
+		onStopLoading();
+
+		if (mData != null) {
+			onReleaseResources(mData);
+			mData = null;
+		}
+	}
+
+	@Override
+	public void onCanceled(List<VFile> data) {
+		super.onCanceled(data);
+
+		onReleaseResources(data);
+	}
+
+	/**
+	 * Cache the listing for the next time the directory is opened, unless
+	 * it failed.
+	 */
+	protected void onReleaseResources(List<VFile> data) {
+		if (data == null || data.isEmpty())
+			return;
+		if (data instanceof ProviderListing && ((ProviderListing) data).getError() != null)
+			return;
+		sCache.put(getKey(), data);
+	}
+}
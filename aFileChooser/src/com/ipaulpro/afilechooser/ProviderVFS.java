@@ -0,0 +1,88 @@
+package com.ipaulpro.afilechooser;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+
+import com.ipaulpro.afilechooser.utils.ProviderListing;
+
+import java.util.List;
+
+/**
+ * VFS over a directory document of a documents provider, backed by a
+ * {@link ProviderLoader}.
+ *
+ * Paths are pseudo paths made of display names, for the title only.
+ */
+public class ProviderVFS implements VFS, LoaderManager.LoaderCallbacks<List<VFile>> {
+    private final String mAuthority;
+    private final String mTreeDocumentId;
+    private final String mDocumentId;
+    private final boolean mFolderBrowser;
+
+    private Context mContext;
+    private DataSetObserver mObserver;
+    private List<VFile> mVFiles;
+    private Exception mError;
+
+    /**
+     * @param treeDocumentId The granted tree the directory is in, null for
+     *            none.
+     */
+    public ProviderVFS(String authority, String treeDocumentId, String documentId, boolean folderBrowser) {
+        mAuthority = authority;
+        mTreeDocumentId = treeDocumentId;
+        mDocumentId = documentId;
+        mFolderBrowser = folderBrowser;
+    }
+
+    @Override
+    public void setObserver(DataSetObserver aObserver) {
+        mObserver = aObserver;
+    }
+
+    @Override
+    public void onActivityCreated(Context aContext, LoaderManager loaderManager, int startLoaderId, String aPath) {
+        mContext = aContext;
+
+        Bundle args = new Bundle();
+        args.putString(FileChooserActivity.PATH, aPath);
+        loaderManager.initLoader(startLoaderId, args, this);
+    }
+
+    @Override
+    public List<VFile> getVFiles() {
+        return mVFiles;
+    }
+
+    /**
+     * @return Why the directory couldn't be listed, null if it was.
+     */
+    public Exception getError() {
+        return mError;
+    }
+
+    @Override
+    public Loader<List<VFile>> onCreateLoader(int id, Bundle args) {
+        return new ProviderLoader(mContext, args.getString(FileChooserActivity.PATH), mAuthority,
+                mTreeDocumentId, mDocumentId, mFolderBrowser);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<List<VFile>> loader, List<VFile> data) {
+        mVFiles = data;
+        mError = data instanceof ProviderListing ? ((ProviderListing) data).getError() : null;
+        if (mObserver != null)
+            mObserver.onChanged();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<List<VFile>> loader) {
+        mVFiles = null;
+        mError = null;
+        if (mObserver != null)
+            mObserver.onInvalidated();
+    }
+}
@@ -0,0 +1,152 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */ 
+
+package com.ipaulpro.afilechooser;
+
+import java.io.File;
+import java.util.List;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.ipaulpro.afilechooser.utils.FileSearcher;
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+
+/**
+ * Loader that returns the files whose name contains a query, anywhere under
+ * a given path.
+ * 
+ * Matches are delivered while the search runs. Restarting the loader for a
+ * new query abandons this one, which cancels its search, so typing only
+ * ever keeps one search busy.
+ */
+public class SearchLoader extends AsyncTaskLoader<List<VFile>> {
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private List<VFile> mData;
+	private String mPath;
+	private String mQuery;
+	private boolean mFolderBrowser;
+	private ScanFilter mFilter;
+	/** Whether mData holds the matches of a search still in progress. */
+	private boolean mDataPartial;
+
+	/** The search in progress, whose partial results are still wanted. */
+	private volatile FileSearcher mSearcher;
+
+	public SearchLoader(Context context, String path, String query, boolean folderBrowser) {
+		this(context, path, query, folderBrowser, ScanFilter.DEFAULT);
+	}
+
+	/**
+	 * @param filter Decides which entries are searched and matched.
+	 */
+	public SearchLoader(Context context, String path, String query, boolean folderBrowser,
+			ScanFilter filter) {
+		super(context);
+		this.mPath = path;
+		this.mQuery = query;
+		this.mFolderBrowser = folderBrowser;
+		this.mFilter = filter;
+	}
+
+	public String getQuery() {
+		return mQuery;
+	}
+
+	@Override
+	public List<VFile> loadInBackground() {
+		final FileSearcher searcher = new FileSearcher(new File(mPath), mQuery, mFolderBrowser, mFilter);
+		mSearcher = searcher;
+
+		return searcher.search(new FileSearcher.Listener() {
+			@Override
+			public void onPartialResult(final List<VFile> matches) {
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						// Skip stale matches of a search that was superseded
+						if (mSearcher == searcher && !searcher.isCanceled() && isStarted())
+							deliverPartialResult(matches);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Also stop the search itself, the workers are shared with the next one.
+	 */
+	@Override
+	public boolean cancelLoad() {
+		final FileSearcher searcher = mSearcher;
+		if (searcher != null)
+			searcher.cancel();
+		return super.cancelLoad();
+	}
+
+	/**
+	 * LoaderManager.restartLoader abandons a running loader instead of
+	 * cancelling it, stop its search so it doesn't compete with the next.
+	 */
+	@Override
+	protected void onAbandon() {
+		final FileSearcher searcher = mSearcher;
+		if (searcher != null)
+			searcher.cancel();
+	}
+
+	@Override
+	public void deliverResult(List<VFile> data) {
+		if (isReset())
+			return;
+
+		mData = data;
+		mDataPartial = false;
+
+		if (isStarted())
+			super.deliverResult(data);
+	}
+
+	private void deliverPartialResult(List<VFile> data) {
+		deliverResult(data);
+		mDataPartial = true;
+	}
+
+	@Override
+	protected void onStartLoading() {
+		if (mData != null)
+			deliverResult(mData);
+
+		// Partial matches mean the search was stopped before it completed
+		if (takeContentChanged() || mData == null || mDataPartial)
+			forceLoad();
+	}
+
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+
+	@Override
+	protected void onReset() {
+		onStopLoading();
+		mData = null;
+	}
+}
@@ -0,0 +1,112 @@
+package com.ipaulpro.afilechooser;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+
+import java.util.List;
+
+/**
+ * VFS listing the search results under a path, backed by a
+ * {@link SearchLoader}.
+ *
+ * Changing the query restarts the loader. The loader for the previous query
+ * is abandoned, which cancels its search.
+ */
+public class SearchVFS implements VFS, LoaderManager.LoaderCallbacks<List<VFile>> {
+    private static final String QUERY = "query";
+
+    private final boolean mFolderBrowser;
+    private final ScanFilter mFilter;
+    private String mQuery;
+
+    private Context mContext;
+    private LoaderManager mLoaderManager;
+    private int mLoaderId;
+    private String mPath;
+    private DataSetObserver mObserver;
+    private List<VFile> mVFiles;
+
+    public SearchVFS(boolean folderBrowser, String query) {
+        this(folderBrowser, query, ScanFilter.DEFAULT);
+    }
+
+    /**
+     * @param filter Decides which entries are searched and matched.
+     */
+    public SearchVFS(boolean folderBrowser, String query, ScanFilter filter) {
+        mFolderBrowser = folderBrowser;
+        mQuery = query;
+        mFilter = filter;
+    }
+
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Search for another query. The current results stay visible until the
+     * new ones arrive.
+     */
+    public void setQuery(String query) {
+        if (query.equals(mQuery))
+            return;
+        mQuery = query;
+        if (mLoaderManager != null)
+            mLoaderManager.restartLoader(mLoaderId, createArgs(), this);
+    }
+
+    @Override
+    public void setObserver(DataSetObserver aObserver) {
+        mObserver = aObserver;
+    }
+
+    @Override
+    public void onActivityCreated(Context aContext, LoaderManager loaderManager, int startLoaderId, String aPath) {
+        mContext = aContext;
+        mLoaderManager = loaderManager;
+        mLoaderId = startLoaderId;
+        mPath = aPath;
+
+        Loader<List<VFile>> loader = loaderManager.initLoader(startLoaderId, createArgs(), this);
+        // A retained loader may still search for an older query
+        if (!mQuery.equals(((SearchLoader) loader).getQuery()))
+            loaderManager.restartLoader(startLoaderId, createArgs(), this);
+    }
+
+    private Bundle createArgs() {
+        Bundle args = new Bundle();
+        args.putString(FileChooserActivity.PATH, mPath);
+        args.putString(QUERY, mQuery);
+        return args;
+    }
+
+    @Override
+    public List<VFile> getVFiles() {
+        return mVFiles;
+    }
+
+    @Override
+    public Loader<List<VFile>> onCreateLoader(int id, Bundle args) {
+        return new SearchLoader(mContext, args.getString(FileChooserActivity.PATH),
+                args.getString(QUERY), mFolderBrowser, mFilter);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<List<VFile>> loader, List<VFile> data) {
+        mVFiles = data;
+        if (mObserver != null)
+            mObserver.onChanged();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<List<VFile>> loader) {
+        mVFiles = null;
+        if (mObserver != null)
+            mObserver.onInvalidated();
+    }
+}
@@ -1,18 +1,187 @@
 package com.ipaulpro.afilechooser;
 
+import com.ipaulpro.afilechooser.utils.ChildDirectoryCache;
+import com.ipaulpro.afilechooser.utils.FileScanner;
+import com.ipaulpro.afilechooser.utils.FileSorter;
+
 import java.io.File;
 
 /**
+ * Immutable snapshot of a directory entry.
+ *
+ * The metadata is captured once, on a background thread, when the entry is
+ * scanned. The overridden {@link File} accessors return that snapshot and
+ * never touch the file system, so they are cheap to call from the UI thread.
+ *
+ * Whether a physical folder has child directories is not part of the scan,
+ * it would cost a listing per folder. Unless it was given, it is looked up
+ * in {@link ChildDirectoryCache} when asked for.
+ *
  * @author devrandom
  */
 public class VFile extends File {
     public static final int PHYSICAL_FILE = 1;
+    /** An entry inside an archive, see {@link ArchiveEntry}. */
+    public static final int ARCHIVE_ENTRY = 2;
+    /** A document of a content provider, see {@link ProviderDocument}. */
+    public static final int PROVIDER_DOCUMENT = 3;
+
+    private final String mName;
+    private final String mSortKey;
+    private final boolean mDirectory;
+    private final long mLength;
+    private final long mLastModified;
+    private final boolean mHidden;
+    /** Null if not known when the snapshot was taken. */
+    private final Boolean mHasChildDirectories;
+    private final int mType;
 
+    /**
+     * Take a snapshot of the entry at a path. This hits the file system and
+     * should not be called on the UI thread.
+     *
+     * @param path
+     */
     public VFile(String path) {
         super(path);
+        final File file = new File(path);
+        mName = file.getName();
+        mSortKey = FileSorter.getKey(mName);
+        mDirectory = file.isDirectory();
+        mLength = mDirectory ? 0 : file.length();
+        mLastModified = file.lastModified();
+        mHidden = mName.startsWith(FileScanner.HIDDEN_PREFIX);
+        mHasChildDirectories = mDirectory ? null : Boolean.FALSE;
+        mType = PHYSICAL_FILE;
+    }
+
+    /**
+     * Snapshot of a physical entry whose child directories are looked up
+     * when asked for.
+     */
+    public VFile(File dir, String name, boolean isDirectory, long length, long lastModified) {
+        this(dir, name, isDirectory, length, lastModified, isDirectory ? null : Boolean.FALSE,
+                PHYSICAL_FILE);
+    }
+
+    public VFile(File dir, String name, boolean isDirectory, long length, long lastModified,
+                 boolean hasChildDirectories) {
+        this(dir, name, isDirectory, length, lastModified, hasChildDirectories, PHYSICAL_FILE);
+    }
+
+    /**
+     * @param type What the entry is, one of the type constants.
+     */
+    protected VFile(File dir, String name, boolean isDirectory, long length, long lastModified,
+                    boolean hasChildDirectories, int type) {
+        this(dir, name, isDirectory, length, lastModified, Boolean.valueOf(hasChildDirectories), type);
+    }
+
+    /**
+     * @param hasChildDirectories Null if not known yet.
+     * @param type What the entry is, one of the type constants.
+     */
+    protected VFile(File dir, String name, boolean isDirectory, long length, long lastModified,
+                    Boolean hasChildDirectories, int type) {
+        super(dir, name);
+        mName = name;
+        mSortKey = FileSorter.getKey(name);
+        mDirectory = isDirectory;
+        mLength = length;
+        mLastModified = lastModified;
+        mHidden = name.startsWith(FileScanner.HIDDEN_PREFIX);
+        mHasChildDirectories = hasChildDirectories;
+        mType = type;
+    }
+
+    /**
+     * Take a snapshot of an entry of a physical directory. This hits the file
+     * system and should not be called on the UI thread.
+     *
+     * @param dir The directory holding the entry.
+     * @param name The name of the entry.
+     * @return The snapshot; a file of length 0 if the entry doesn't exist.
+     */
+    public static VFile stat(File dir, String name) {
+        return stat(dir, name, new File(dir, name).isDirectory());
+    }
+
+    /**
+     * Take a snapshot of an entry whose kind is already known.
+     *
+     * @see #stat(File, String)
+     */
+    public static VFile stat(File dir, String name, boolean isDirectory) {
+        final File file = new File(dir, name);
+        if (isDirectory) {
+            return new VFile(dir, name, true, 0, file.lastModified());
+        }
+        return new VFile(dir, name, false, file.length(), file.lastModified());
     }
 
     public int getType() {
-        return PHYSICAL_FILE;
+        return mType;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return The precomputed key listings are sorted by.
+     */
+    public String getSortKey() {
+        return mSortKey;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return mDirectory;
+    }
+
+    @Override
+    public boolean isFile() {
+        return !mDirectory;
+    }
+
+    @Override
+    public long length() {
+        return mLength;
+    }
+
+    @Override
+    public long lastModified() {
+        return mLastModified;
+    }
+
+    @Override
+    public boolean isHidden() {
+        return mHidden;
+    }
+
+    /**
+     * Never touches the file system.
+     *
+     * @return Whether this is a directory holding non-hidden directories;
+     *         false if that is not known yet.
+     */
+    public boolean hasChildDirectories() {
+        final Boolean hasChildDirectories = peekChildDirectories();
+        return hasChildDirectories != null && hasChildDirectories;
+    }
+
+    /**
+     * Never touches the file system.
+     *
+     * @return Whether this is a directory holding non-hidden directories;
+     *         null if that is not known yet, see
+     *         {@link ChildDirectoryCache#get(File)}.
+     */
+    public Boolean peekChildDirectories() {
+        if (mHasChildDirectories != null || mType != PHYSICAL_FILE) {
+            return mHasChildDirectories;
+        }
+        return ChildDirectoryCache.peek(getAbsolutePath(), mLastModified);
     }
 }
@@ -0,0 +1,28 @@
+package com.ipaulpro.afilechooser;
+
+import java.io.File;
+
+/**
+ * Entry of a storage volume's root, as listed in the merged root of all
+ * volumes. It is a physical file, tagged with the volume it is on.
+ */
+public class VolumeFile extends VFile {
+    private final File mVolume;
+
+    /**
+     * @param file An entry of the volume's root.
+     * @param volume
+     */
+    public VolumeFile(VFile file, File volume) {
+        super(volume, file.getName(), file.isDirectory(), file.length(), file.lastModified(),
+                file.peekChildDirectories(), PHYSICAL_FILE);
+        mVolume = volume;
+    }
+
+    /**
+     * @return The root of the volume holding the entry.
+     */
+    public File getVolume() {
+        return mVolume;
+    }
+}
@@ -0,0 +1,266 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */ 
+
+package com.ipaulpro.afilechooser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.ipaulpro.afilechooser.utils.FileScanner;
+import com.ipaulpro.afilechooser.utils.FileSorter;
+import com.ipaulpro.afilechooser.utils.ListingCache;
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+import com.ipaulpro.afilechooser.utils.StorageVolumes;
+
+/**
+ * Loader that returns the roots of all mounted storage volumes as one
+ * listing of {@link VolumeFile}s.
+ * 
+ * Volumes are scanned in parallel by a small pool of workers, so a slow SD
+ * card or USB drive doesn't hold back the others. Each time a volume is done, the sorted
+ * listings of the volumes done so far are merged and delivered. Entries are
+ * kept or dropped by a {@link ScanFilter}, like {@link FileLoader} does.
+ */
+public class VolumesLoader extends AsyncTaskLoader<List<VFile>> {
+
+	/** Volumes scanned at the same time, the others wait for a worker. */
+	private static final int WORKERS = 4;
+
+	private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(WORKERS, WORKERS,
+			30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "VolumesLoader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		sExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private List<VFile> mData;
+	private boolean mFolderBrowser;
+	private ScanFilter mFilter;
+	/** Whether mData lacks volumes whose scan was still in progress. */
+	private boolean mDataPartial;
+
+	/** The load in progress, whose partial results are still wanted. */
+	private volatile Scan mScan;
+
+	public VolumesLoader(Context context, boolean folderBrowser) {
+		this(context, folderBrowser, ScanFilter.DEFAULT);
+	}
+
+	/**
+	 * @param filter Decides which entries are listed.
+	 */
+	public VolumesLoader(Context context, boolean folderBrowser, ScanFilter filter) {
+		super(context);
+		this.mFolderBrowser = folderBrowser;
+		this.mFilter = filter;
+	}
+
+	/**
+	 * The per volume scans of one load.
+	 */
+	private class Scan {
+		private final List<File> mVolumes;
+		private final FileScanner[] mScanners;
+		private final List<List<VFile>> mListings;
+		private final CountDownLatch mDone;
+		private volatile boolean mCanceled;
+
+		Scan(List<File> volumes) {
+			mVolumes = volumes;
+			mScanners = new FileScanner[volumes.size()];
+			mListings = new ArrayList<List<VFile>>(volumes.size());
+			for (int i = 0; i < volumes.size(); i++)
+				mListings.add(null);
+			mDone = new CountDownLatch(volumes.size());
+		}
+
+		/**
+		 * @return The merged listing, or null if cancelled.
+		 */
+		List<VFile> run() {
+			for (int i = 0; i < mVolumes.size(); i++) {
+				final int volume = i;
+				sExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							scan(volume);
+						} finally {
+							mDone.countDown();
+						}
+					}
+				});
+			}
+
+			try {
+				mDone.await();
+			} catch (InterruptedException e) {
+				cancel();
+			}
+			return mCanceled ? null : merge();
+		}
+
+		private void scan(int volume) {
+			final File root = mVolumes.get(volume);
+			final String path = root.getAbsolutePath();
+			final long lastModified = root.lastModified();
+
+			// Cached with the name predicates applied only, like FileLoader
+			final ScanFilter nameFilter = mFilter.getNameFilter();
+			final String nameKey = nameFilter.getNameKey();
+			List<VFile> files = ListingCache.get(path, mFolderBrowser, FileSorter.SORT_NAME, nameKey,
+					lastModified);
+			if (files == null) {
+				final FileScanner scanner = new FileScanner(root, mFolderBrowser, FileSorter.SORT_NAME,
+						nameFilter);
+				synchronized (this) {
+					if (mCanceled)
+						return;
+					mScanners[volume] = scanner;
+				}
+				files = scanner.scan();
+				if (files == null)
+					return;
+				ListingCache.put(path, mFolderBrowser, FileSorter.SORT_NAME, nameKey, lastModified, files);
+			}
+			files = mFilter.apply(files);
+
+			final List<VFile> tagged = new ArrayList<VFile>(files.size());
+			for (VFile file : files)
+				tagged.add(new VolumeFile(file, root));
+
+			final List<VFile> merged;
+			synchronized (this) {
+				mListings.set(volume, tagged);
+				// The last volume is delivered as the result
+				if (mDone.getCount() == 1)
+					return;
+				merged = merge();
+			}
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					// Skip stale listings of a load that was superseded
+					if (mScan == Scan.this && !mCanceled && isStarted())
+						deliverPartialResult(merged);
+				}
+			});
+		}
+
+		private synchronized List<VFile> merge() {
+			final List<List<VFile>> done = new ArrayList<List<VFile>>(mListings.size());
+			for (List<VFile> listing : mListings) {
+				if (listing != null)
+					done.add(listing);
+			}
+			return new FileSorter(FileSorter.SORT_NAME).merge(done);
+		}
+
+		/**
+		 * Stop all scans and return from {@link #run()} right away, without
+		 * waiting for volumes that don't respond.
+		 */
+		synchronized void cancel() {
+			mCanceled = true;
+			for (FileScanner scanner : mScanners) {
+				if (scanner != null)
+					scanner.cancel();
+			}
+			while (mDone.getCount() > 0)
+				mDone.countDown();
+		}
+	}
+
+	@Override
+	public List<VFile> loadInBackground() {
+		final Scan scan = new Scan(StorageVolumes.getVolumes());
+		mScan = scan;
+		return scan.run();
+	}
+
+	@Override
+	public boolean cancelLoad() {
+		final Scan scan = mScan;
+		if (scan != null)
+			scan.cancel();
+		return super.cancelLoad();
+	}
+
+	@Override
+	public void deliverResult(List<VFile> data) {
+		if (isReset())
+			return;
+
+		mData = data;
+		mDataPartial = false;
+
+		if (isStarted())
+			super.deliverResult(data);
+	}
+
+	private void deliverPartialResult(List<VFile> data) {
+		deliverResult(data);
+		mDataPartial = true;
+	}
+
+	@Override
+	protected void onStartLoading() {
+		if (mData != null)
+			deliverResult(mData);
+
+		// A partial listing means some volumes were not scanned to the end
+		if (takeContentChanged() || mData == null || mDataPartial)
+			forceLoad();
+	}
+
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+
+	@Override
+	protected void onReset() {
+		onStopLoading();
+		mData = null;
+	}
+}
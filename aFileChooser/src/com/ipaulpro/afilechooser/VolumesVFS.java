@@ -0,0 +1,72 @@
+package com.ipaulpro.afilechooser;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+
+import java.util.List;
+
+/**
+ * VFS listing the roots of all mounted storage volumes as one directory,
+ * backed by a {@link VolumesLoader}. Entries below it are browsed through a
+ * {@link LocalVFS}.
+ */
+public class VolumesVFS implements VFS, LoaderManager.LoaderCallbacks<List<VFile>> {
+    private final boolean mFolderBrowser;
+    private final ScanFilter mFilter;
+
+    private Context mContext;
+    private DataSetObserver mObserver;
+    private List<VFile> mVFiles;
+
+    public VolumesVFS(boolean folderBrowser) {
+        this(folderBrowser, ScanFilter.DEFAULT);
+    }
+
+    /**
+     * @param filter Decides which entries are listed.
+     */
+    public VolumesVFS(boolean folderBrowser, ScanFilter filter) {
+        mFolderBrowser = folderBrowser;
+        mFilter = filter;
+    }
+
+    @Override
+    public void setObserver(DataSetObserver aObserver) {
+        mObserver = aObserver;
+    }
+
+    @Override
+    public void onActivityCreated(Context aContext, LoaderManager loaderManager, int startLoaderId, String aPath) {
+        mContext = aContext;
+        loaderManager.initLoader(startLoaderId, null, this);
+    }
+
+    @Override
+    public List<VFile> getVFiles() {
+        return mVFiles;
+    }
+
+    @Override
+    public Loader<List<VFile>> onCreateLoader(int id, Bundle args) {
+        return new VolumesLoader(mContext, mFolderBrowser, mFilter);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<List<VFile>> loader, List<VFile> data) {
+        mVFiles = data;
+        if (mObserver != null)
+            mObserver.onChanged();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<List<VFile>> loader) {
+        mVFiles = null;
+        if (mObserver != null)
+            mObserver.onInvalidated();
+    }
+}
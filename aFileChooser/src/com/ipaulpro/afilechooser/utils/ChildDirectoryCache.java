@@ -0,0 +1,218 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Bounded, process-wide cache of whether a directory has (non-hidden)
+ * child directories, keyed by path and validated against the directory's
+ * modification time.
+ * 
+ * {@link #get(File)} may hit the file system and belongs on a background
+ * thread. {@link #peek(String)} never does and is what the UI thread uses;
+ * it asks for the directories it shows through
+ * {@link #request(List, Listener)}. Completed {@link FileScanner} scans
+ * record the directory they listed for free.
+ */
+public class ChildDirectoryCache {
+
+	private static final int MAX_ENTRIES = 2048;
+
+	private static final LruCache<String, Entry> sCache = new LruCache<String, Entry>(MAX_ENTRIES);
+
+	private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1, 30,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "ChildDirectoryCache");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		sExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Receives the answers of a request.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the main thread once the requested directories were
+		 * looked at, only if one of them turned out to have child
+		 * directories.
+		 */
+		void onChildDirectoriesFound();
+	}
+
+	private static class Entry {
+		final long lastModified;
+		final boolean hasChildDirectories;
+
+		Entry(long lastModified, boolean hasChildDirectories) {
+			this.lastModified = lastModified;
+			this.hasChildDirectories = hasChildDirectories;
+		}
+	}
+
+	private ChildDirectoryCache() {
+	}
+
+	/**
+	 * Whether the directory has child directories, scanning it only if it
+	 * changed since it was last cached. Don't call this on the UI thread.
+	 * 
+	 * @param dir
+	 * @return
+	 */
+	public static boolean get(File dir) {
+		return get(dir, dir.lastModified());
+	}
+
+	/**
+	 * @param dir
+	 * @param lastModified The modification time the caller already read.
+	 * @see #get(File)
+	 */
+	public static boolean get(File dir, long lastModified) {
+		final String path = dir.getAbsolutePath();
+
+		final Entry cached = sCache.get(path);
+		if (cached != null && cached.lastModified == lastModified)
+			return cached.hasChildDirectories;
+
+		final boolean hasChildDirectories = scan(dir);
+		sCache.put(path, new Entry(lastModified, hasChildDirectories));
+		return hasChildDirectories;
+	}
+
+	/**
+	 * The last known answer for the directory, without touching the file
+	 * system.
+	 * 
+	 * @param path Absolute path of the directory.
+	 * @return The cached answer, or null if the directory was never scanned.
+	 */
+	public static Boolean peek(String path) {
+		final Entry cached = sCache.get(path);
+		return cached == null ? null : cached.hasChildDirectories;
+	}
+
+	/**
+	 * @param path Absolute path of the directory.
+	 * @param lastModified The modification time of the directory.
+	 * @return The cached answer, or null if the directory was never scanned
+	 *         or changed since.
+	 * @see #peek(String)
+	 */
+	public static Boolean peek(String path, long lastModified) {
+		final Entry cached = sCache.get(path);
+		if (cached == null || cached.lastModified != lastModified)
+			return null;
+		return cached.hasChildDirectories;
+	}
+
+	/**
+	 * Record what a listing of the directory found out anyway.
+	 * 
+	 * @param dir
+	 * @param lastModified The modification time read before the listing.
+	 * @param hasChildDirectories
+	 */
+	static void put(File dir, long lastModified, boolean hasChildDirectories) {
+		sCache.put(dir.getAbsolutePath(), new Entry(lastModified, hasChildDirectories));
+	}
+
+	/**
+	 * Look at the given directories on a low priority thread, ignoring
+	 * anything else and the directories whose answer is known. A new
+	 * request replaces whatever the previous one didn't get to yet. Cheap
+	 * enough to call on the UI thread.
+	 * 
+	 * @param candidates For instance, the entries currently visible.
+	 * @param listener Notified if any of them has child directories.
+	 */
+	public static void request(List<VFile> candidates, final Listener listener) {
+		final List<VFile> dirs = new ArrayList<VFile>();
+		for (VFile file : candidates) {
+			if (file.isDirectory() && file.peekChildDirectories() == null)
+				dirs.add(file);
+		}
+
+		// Forget about the previous request
+		sExecutor.getQueue().clear();
+		if (dirs.isEmpty())
+			return;
+
+		sExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean found = false;
+				for (VFile dir : dirs)
+					found |= get(dir, dir.lastModified());
+				if (found) {
+					sHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							listener.onChildDirectoriesFound();
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * List names only and stop at the first child directory.
+	 */
+	private static boolean scan(File dir) {
+		final String[] names = dir.list();
+		if (names == null)
+			return false;
+
+		for (String name : names) {
+			if (name.startsWith(FileScanner.HIDDEN_PREFIX))
+				continue;
+			if (new File(dir, name).isDirectory())
+				return true;
+		}
+		return false;
+	}
+}
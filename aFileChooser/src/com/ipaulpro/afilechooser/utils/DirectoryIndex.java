@@ -0,0 +1,308 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Optional persistent index of directory listings, kept in the app's cache
+ * dir so deep trees reopen without a scan after the process restarts.
+ * 
+ * Each listing is one small binary file, read through a memory mapping:
+ * 
+ * <pre>
+ * int    magic, short version
+ * short  path length, UTF-8 directory path
+ * byte   folders only, byte sort order
+ * long   directory modification time
+ * int    entry count
+ * entries, each:
+ *   byte  flags (directory, has child directories, whether that is known)
+ *   long  length, long modification time
+ *   short name length, UTF-8 name bytes
+ * </pre>
+ * 
+ * A listing is only served while the directory's modification time is
+ * unchanged. Sizes and known child directory flags are those of the last
+ * scan.
+ */
+public class DirectoryIndex {
+	/** TAG for log messages. */
+	static final String TAG = "DirectoryIndex";
+	private static final boolean DEBUG = false; // Set to true to enable logging
+
+	private static final String DIR_NAME = "afilechooser-index";
+	private static final String SUFFIX = ".idx";
+
+	private static final int MAGIC = 0x41464349; // AFCI
+	private static final short VERSION = 2;
+
+	private static final int FLAG_DIRECTORY = 1;
+	private static final int FLAG_CHILD_DIRECTORIES = 2;
+	private static final int FLAG_CHILD_DIRECTORIES_KNOWN = 4;
+
+	/** Listings kept before the least recently written ones are dropped. */
+	private static final int MAX_LISTINGS = 1024;
+	private static final int TRIM_INTERVAL = 64;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Writes one listing at a time, in order, at low priority. */
+	private static final ThreadPoolExecutor sWriter = new ThreadPoolExecutor(1, 1, 30,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "DirectoryIndex");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		sWriter.allowCoreThreadTimeOut(true);
+	}
+
+	private static DirectoryIndex sInstance;
+
+	private final File mDir;
+	private int mWrites;
+
+	/**
+	 * @param dir Where the listings are kept.
+	 */
+	DirectoryIndex(File dir) {
+		mDir = dir;
+	}
+
+	/**
+	 * @param context
+	 * @return The index in the app's cache dir.
+	 */
+	public static synchronized DirectoryIndex getInstance(Context context) {
+		if (sInstance == null)
+			sInstance = new DirectoryIndex(new File(context.getCacheDir(), DIR_NAME));
+		return sInstance;
+	}
+
+	private File getFile(String path, boolean foldersOnly, int sortOrder) {
+		final String key = (foldersOnly ? "d" : "f") + sortOrder + path;
+		return new File(mDir, Integer.toHexString(key.hashCode()) + SUFFIX);
+	}
+
+	/**
+	 * Read a listing if it was indexed at the given modification time.
+	 * Don't call this on the UI thread.
+	 * 
+	 * @param dir
+	 * @param foldersOnly
+	 * @param sortOrder
+	 * @param lastModified The current modification time of dir.
+	 * @return The listing, or null if it isn't indexed or is out of date.
+	 */
+	public List<VFile> read(File dir, boolean foldersOnly, int sortOrder, long lastModified) {
+		final String path = dir.getAbsolutePath();
+		final File file = getFile(path, foldersOnly, sortOrder);
+		if (!file.exists())
+			return null;
+
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			final FileChannel channel = in.getChannel();
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION)
+				return null;
+			if (!path.equals(readString(buffer))
+					|| (buffer.get() != 0) != foldersOnly
+					|| buffer.get() != sortOrder
+					|| buffer.getLong() != lastModified)
+				return null;
+
+			final int count = buffer.getInt();
+			final List<VFile> files = new ArrayList<VFile>(count);
+			byte[] name = new byte[256];
+			for (int i = 0; i < count; i++) {
+				final int flags = buffer.get();
+				final long length = buffer.getLong();
+				final long modified = buffer.getLong();
+				final int nameLength = buffer.getShort() & 0xffff;
+				if (nameLength > name.length)
+					name = new byte[nameLength];
+				buffer.get(name, 0, nameLength);
+
+				final String entryName = new String(name, 0, nameLength, UTF_8);
+				final boolean directory = (flags & FLAG_DIRECTORY) != 0;
+				if ((flags & FLAG_CHILD_DIRECTORIES_KNOWN) != 0)
+					files.add(new VFile(dir, entryName, directory, length, modified,
+							(flags & FLAG_CHILD_DIRECTORIES) != 0));
+				else
+					files.add(new VFile(dir, entryName, directory, length, modified));
+			}
+			return files;
+		} catch (Exception e) {
+			// Corrupt or truncated, it will be rewritten after the next scan
+			if (DEBUG) Log.e(TAG, "read", e);
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Eat it
+				}
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		final int length = buffer.getShort() & 0xffff;
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Index a listing in the background.
+	 * 
+	 * @param dir
+	 * @param foldersOnly
+	 * @param sortOrder
+	 * @param lastModified The modification time read before the scan started.
+	 * @param files Must not be modified afterwards.
+	 */
+	public void write(final File dir, final boolean foldersOnly, final int sortOrder,
+			final long lastModified, final List<VFile> files) {
+		sWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeListing(dir.getAbsolutePath(), foldersOnly, sortOrder, lastModified, files);
+				} catch (IOException e) {
+					if (DEBUG) Log.e(TAG, "write", e);
+				}
+				if (++mWrites % TRIM_INTERVAL == 0)
+					trim();
+			}
+		});
+	}
+
+	private void writeListing(String path, boolean foldersOnly, int sortOrder, long lastModified,
+			List<VFile> files) throws IOException {
+		if (!mDir.isDirectory() && !mDir.mkdirs())
+			throw new IOException("Can't create " + mDir);
+
+		final File file = getFile(path, foldersOnly, sortOrder);
+		final File temp = new File(mDir, file.getName() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			final byte[] pathBytes = path.getBytes(UTF_8);
+			out.writeShort(pathBytes.length);
+			out.write(pathBytes);
+			out.writeByte(foldersOnly ? 1 : 0);
+			out.writeByte(sortOrder);
+			out.writeLong(lastModified);
+
+			final int count = files.size();
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				final VFile entry = files.get(i);
+				int flags = 0;
+				if (entry.isDirectory())
+					flags |= FLAG_DIRECTORY;
+				final Boolean hasChildDirectories = entry.peekChildDirectories();
+				if (hasChildDirectories != null)
+					flags |= FLAG_CHILD_DIRECTORIES_KNOWN;
+				if (hasChildDirectories != null && hasChildDirectories)
+					flags |= FLAG_CHILD_DIRECTORIES;
+				final byte[] name = entry.getName().getBytes(UTF_8);
+
+				out.writeByte(flags);
+				out.writeLong(entry.length());
+				out.writeLong(entry.lastModified());
+				out.writeShort(name.length);
+				out.write(name);
+			}
+		} finally {
+			out.close();
+		}
+
+		// Readers only ever see complete listings
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Can't rename " + temp);
+		}
+	}
+
+	/**
+	 * Drop the least recently written listings beyond MAX_LISTINGS.
+	 */
+	private void trim() {
+		final File[] listings = mDir.listFiles();
+		if (listings == null || listings.length <= MAX_LISTINGS)
+			return;
+
+		final long[] modified = new long[listings.length];
+		final Integer[] order = new Integer[listings.length];
+		for (int i = 0; i < listings.length; i++) {
+			modified[i] = listings[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				final long m1 = modified[i1];
+				final long m2 = modified[i2];
+				return m1 < m2 ? -1 : (m1 > m2 ? 1 : 0);
+			}
+		});
+		for (int i = 0; i < listings.length - MAX_LISTINGS; i++)
+			listings[order[i]].delete();
+	}
+}
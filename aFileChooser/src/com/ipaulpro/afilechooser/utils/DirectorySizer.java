@@ -0,0 +1,333 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Computes the recursive size and file count of directories in the
+ * background.
+ * 
+ * The files directly in a directory are memoized per path and modification
+ * time, so totals of a parent or a sibling reuse every level that didn't
+ * change and only cost a stat per directory. As a file growing in place
+ * doesn't change its directory's modification time, a level is also listed
+ * again once it is older than {@link #LEVEL_TTL_MS}. Hidden entries are
+ * counted, they take up space all the same. Symbolic links to directories
+ * are not followed.
+ * 
+ * Totals are shown while the directory's own modification time matches,
+ * and walked again by the next request once older than
+ * {@link #REVALIDATE_MS}, which picks up changes deeper in the tree.
+ * 
+ * Each directory level is a task of its own on a small pool of low priority
+ * threads, separate from the loaders, so a single large subtree is walked
+ * in parallel and heavy subtrees never hold up a listing.
+ */
+public class DirectorySizer {
+
+	/** Age after which totals are walked again when requested. */
+	public static final long REVALIDATE_MS = 10 * 1000;
+
+	/** Age after which a memoized level is listed again. */
+	public static final long LEVEL_TTL_MS = 60 * 1000;
+
+	/** Memoized directory levels. */
+	private static final int MAX_LEVELS = 8192;
+
+	private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(WORKERS, WORKERS, 30,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "DirectorySizer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		sExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+	private static final LruCache<String, Level> sLevels = new LruCache<String, Level>(MAX_LEVELS);
+	private static final LruCache<String, Totals> sTotals = new LruCache<String, Totals>(MAX_LEVELS);
+
+	/** Walks queued or running, by the path of their directory. */
+	private static final Map<String, Walk> sPending = new HashMap<String, Walk>();
+
+	/**
+	 * Recursive totals of a directory.
+	 */
+	public static class Totals {
+		/** Modification time of the directory when the totals were computed. */
+		public final long lastModified;
+		/** When the totals were computed, in elapsed realtime. */
+		public final long computedAt;
+		/** Bytes in all files below the directory. */
+		public final long size;
+		/** Number of files below the directory. */
+		public final int count;
+
+		Totals(long lastModified, long computedAt, long size, int count) {
+			this.lastModified = lastModified;
+			this.computedAt = computedAt;
+			this.size = size;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Receives totals as they are computed.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the main thread, only if the totals changed.
+		 */
+		void onTotalsComputed(File dir, Totals totals);
+	}
+
+	/**
+	 * The files directly in a directory and its subdirectory names.
+	 */
+	private static class Level {
+		final long lastModified;
+		final long listedAt;
+		final long size;
+		final int count;
+		final String[] dirs;
+
+		Level(long lastModified, long listedAt, long size, int count, String[] dirs) {
+			this.lastModified = lastModified;
+			this.listedAt = listedAt;
+			this.size = size;
+			this.count = count;
+			this.dirs = dirs;
+		}
+	}
+
+	private DirectorySizer() {
+	}
+
+	/**
+	 * Get the last totals computed for a directory, without any I/O.
+	 * 
+	 * @param dir A snapshot of the directory.
+	 * @return null if not computed yet or the directory changed since.
+	 */
+	public static Totals peek(VFile dir) {
+		final Totals totals = sTotals.get(dir.getAbsolutePath());
+		if (totals == null || totals.lastModified != dir.lastModified())
+			return null;
+		return totals;
+	}
+
+	/**
+	 * Compute the totals of the given directories, ignoring anything else
+	 * and directories whose totals are recent. A new request replaces
+	 * whatever the previous one didn't get to yet. Cheap enough to call on
+	 * the UI thread.
+	 * 
+	 * @param candidates For instance, the entries currently visible.
+	 * @param listener Notified for each directory whose totals changed.
+	 */
+	public static void request(List<VFile> candidates, Listener listener) {
+		// Forget about the previous request
+		final List<Runnable> dropped = new ArrayList<Runnable>();
+		sExecutor.getQueue().drainTo(dropped);
+		synchronized (sPending) {
+			for (Runnable task : dropped)
+				((LevelTask) task).mWalk.abandon();
+		}
+
+		final long now = SystemClock.elapsedRealtime();
+		for (VFile file : candidates) {
+			if (!file.isDirectory())
+				continue;
+			final Totals totals = peek(file);
+			if (totals != null && now - totals.computedAt < REVALIDATE_MS)
+				continue;
+			final String path = file.getAbsolutePath();
+			synchronized (sPending) {
+				// Already on its way
+				if (sPending.containsKey(path))
+					continue;
+				final Walk walk = new Walk(file, listener);
+				sPending.put(path, walk);
+				walk.submit(file, 0);
+			}
+		}
+	}
+
+	private static Level getLevel(File dir, long lastModified) {
+		final String path = dir.getAbsolutePath();
+		final long now = SystemClock.elapsedRealtime();
+		Level level = sLevels.get(path);
+		if (level != null && level.lastModified == lastModified && now - level.listedAt < LEVEL_TTL_MS)
+			return level;
+
+		long size = 0;
+		int count = 0;
+		final List<String> dirs = new ArrayList<String>();
+		final String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				final File file = new File(dir, name);
+				if (file.isDirectory()) {
+					if (!FileUtils.isSymbolicLink(file))
+						dirs.add(name);
+				} else {
+					size += file.length();
+					count++;
+				}
+			}
+		}
+
+		level = new Level(lastModified, now, size, count, dirs.toArray(new String[dirs.size()]));
+		sLevels.put(path, level);
+		return level;
+	}
+
+	/**
+	 * The totals of one directory, summed up by the tasks of its levels.
+	 */
+	private static class Walk {
+		private final File mDir;
+		private final Listener mListener;
+		private long mLastModified;
+		private long mSize;
+		private int mCount;
+		/** Levels submitted but not added yet. */
+		private int mPending;
+		private boolean mAbandoned;
+
+		Walk(File dir, Listener listener) {
+			mDir = dir;
+			mListener = listener;
+		}
+
+		synchronized void submit(File dir, int depth) {
+			mPending++;
+			sExecutor.execute(new LevelTask(this, dir, depth));
+		}
+
+		synchronized boolean isAbandoned() {
+			return mAbandoned;
+		}
+
+		/**
+		 * Called with sPending held, as some of the levels were dropped.
+		 */
+		void abandon() {
+			synchronized (this) {
+				mAbandoned = true;
+			}
+			if (sPending.get(mDir.getAbsolutePath()) == this)
+				sPending.remove(mDir.getAbsolutePath());
+		}
+
+		/**
+		 * Add a level whose subdirectories were already submitted.
+		 * 
+		 * @param level null if it couldn't be listed.
+		 */
+		void add(Level level, int depth) {
+			final Totals totals;
+			synchronized (this) {
+				if (level != null) {
+					if (depth == 0)
+						mLastModified = level.lastModified;
+					mSize += level.size;
+					mCount += level.count;
+				}
+				if (--mPending > 0 || mAbandoned)
+					return;
+				totals = new Totals(mLastModified, SystemClock.elapsedRealtime(), mSize, mCount);
+			}
+
+			final String path = mDir.getAbsolutePath();
+			final Totals previous = sTotals.put(path, totals);
+			synchronized (sPending) {
+				if (sPending.get(path) == this)
+					sPending.remove(path);
+			}
+			if (mListener != null && (previous == null || previous.lastModified != totals.lastModified
+					|| previous.size != totals.size || previous.count != totals.count)) {
+				sHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						mListener.onTotalsComputed(mDir, totals);
+					}
+				});
+			}
+		}
+	}
+
+	private static class LevelTask implements Runnable {
+		final Walk mWalk;
+		private final File mDir;
+		private final int mDepth;
+
+		LevelTask(Walk walk, File dir, int depth) {
+			mWalk = walk;
+			mDir = dir;
+			mDepth = depth;
+		}
+
+		@Override
+		public void run() {
+			if (mWalk.isAbandoned())
+				return;
+			Level level = null;
+			try {
+				level = getLevel(mDir, mDir.lastModified());
+				if (mDepth < FileSearcher.MAX_DEPTH) {
+					for (String name : level.dirs)
+						mWalk.submit(new File(mDir, name), mDepth + 1);
+				}
+			} finally {
+				// Even if the level failed, so the walk completes
+				mWalk.add(level, mDepth);
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact, read-only extension to MIME type table.
+ * 
+ * Extensions are kept sorted in a single char array and MIME types are
+ * shared String instances. A seed is searched at build time so that the
+ * hash is perfect (collision free) over the slot table, which lets
+ * {@link #get(CharSequence, int, int)} resolve an extension straight from
+ * the characters of a file name with one probe and no allocation.
+ * Matching is case insensitive.
+ * 
+ * The table of res/xml/mimetypes.xml is built by the generateMimeTypeTable
+ * task in build.gradle, see {@link MimeTypeTable}, so it costs nothing at
+ * run time. Tables of other XML files are built when they are parsed.
+ */
+class ExtensionTable {
+
+	private static final int MAX_SEED_ATTEMPTS = 256;
+
+	/** Lower case extensions, without the dot, back to back in sorted order. */
+	private final char[] mChars;
+	/** Start of extension i in mChars; mOffsets[i + 1] is its end. */
+	private final int[] mOffsets;
+	/** MIME type of extension i. */
+	private final String[] mValues;
+	/** Extension index + 1 per hash slot, 0 if the slot is empty. */
+	private final int[] mSlots;
+	private final int mSeed;
+
+	/**
+	 * Wrap a table built ahead of time.
+	 * 
+	 * @param chars Lower case extensions, back to back in sorted order.
+	 * @param offsets Start of each extension in chars, followed by the end
+	 *            of the last one.
+	 * @param values MIME type of each extension.
+	 * @param slots Extension index + 1 per hash slot; a power of two long.
+	 * @param seed The seed that makes the hash collision free over slots.
+	 */
+	ExtensionTable(char[] chars, int[] offsets, String[] values, int[] slots, int seed) {
+		mChars = chars;
+		mOffsets = offsets;
+		mValues = values;
+		mSlots = slots;
+		mSeed = seed;
+	}
+
+	/**
+	 * @param mimeTypes Extensions, with or without the leading dot, to MIME
+	 *            types.
+	 */
+	ExtensionTable(Map<String, String> mimeTypes) {
+		final int size = mimeTypes.size();
+		final String[] keys = new String[size];
+		final Map<String, String> extensions = new HashMap<String, String>(size * 2);
+		int count = 0;
+		for (Map.Entry<String, String> entry : mimeTypes.entrySet()) {
+			final String key = normalize(entry.getKey());
+			if (key.length() == 0 || extensions.containsKey(key))
+				continue;
+			keys[count++] = key;
+			extensions.put(key, entry.getValue());
+		}
+		Arrays.sort(keys, 0, count);
+
+		// Share one String per distinct MIME type
+		final Map<String, String> values = new HashMap<String, String>();
+		int length = 0;
+		for (int i = 0; i < count; i++)
+			length += keys[i].length();
+
+		mChars = new char[length];
+		mOffsets = new int[count + 1];
+		mValues = new String[count];
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			final String key = keys[i];
+			key.getChars(0, key.length(), mChars, offset);
+			mOffsets[i] = offset;
+			offset += key.length();
+
+			final String value = extensions.get(key);
+			String shared = values.get(value);
+			if (shared == null) {
+				shared = value;
+				values.put(value, value);
+			}
+			mValues[i] = shared;
+		}
+		mOffsets[count] = offset;
+
+		// Find a collision free seed, growing the table if we have to
+		int capacity = Integer.highestOneBit(Math.max(count, 1)) << 2;
+		int[] slots = null;
+		int seed = 0;
+		while (slots == null) {
+			for (int attempt = 0; attempt < MAX_SEED_ATTEMPTS && slots == null; attempt++) {
+				seed = 0x9E3779B9 * (attempt + 1);
+				slots = place(capacity, seed, count);
+			}
+			capacity <<= 1;
+		}
+		mSlots = slots;
+		mSeed = seed;
+	}
+
+	private static String normalize(String extension) {
+		final int start = extension.startsWith(".") ? 1 : 0;
+		final char[] chars = new char[extension.length() - start];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = Character.toLowerCase(extension.charAt(start + i));
+		return new String(chars);
+	}
+
+	private int[] place(int capacity, int seed, int count) {
+		final int[] slots = new int[capacity];
+		final int mask = capacity - 1;
+		for (int i = 0; i < count; i++) {
+			final int slot = hash(mChars, mOffsets[i], mOffsets[i + 1], seed) & mask;
+			if (slots[slot] != 0)
+				return null;
+			slots[slot] = i + 1;
+		}
+		return slots;
+	}
+
+	private static int hash(char[] chars, int start, int end, int seed) {
+		int h = seed;
+		for (int i = start; i < end; i++)
+			h = (h ^ chars[i]) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(CharSequence chars, int start, int end, int seed) {
+		int h = seed;
+		for (int i = start; i < end; i++)
+			h = (h ^ Character.toLowerCase(chars.charAt(i))) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Look up the extension held in chars[start, end), without the dot.
+	 * 
+	 * @return The MIME type, or null if the extension is unknown.
+	 */
+	String get(CharSequence chars, int start, int end) {
+		final int index = indexOf(chars, start, end);
+		return index < 0 ? null : mValues[index];
+	}
+
+	private int indexOf(CharSequence chars, int start, int end) {
+		final int slot = hash(chars, start, end, mSeed) & (mSlots.length - 1);
+		final int index = mSlots[slot] - 1;
+		if (index < 0)
+			return -1;
+
+		final int offset = mOffsets[index];
+		final int length = mOffsets[index + 1] - offset;
+		if (length != end - start)
+			return -1;
+		for (int i = 0; i < length; i++) {
+			if (mChars[offset + i] != Character.toLowerCase(chars.charAt(start + i)))
+				return -1;
+		}
+		return index;
+	}
+
+	/**
+	 * @return The number of extensions in the table.
+	 */
+	int size() {
+		return mValues.length;
+	}
+
+	/**
+	 * @return Extension i, without the dot, in sorted order.
+	 */
+	String getExtension(int i) {
+		return new String(mChars, mOffsets[i], mOffsets[i + 1] - mOffsets[i]);
+	}
+
+	/**
+	 * @return The MIME type of extension i.
+	 */
+	String getMimeType(int i) {
+		return mValues[i];
+	}
+}
@@ -0,0 +1,224 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Single-pass directory scanner.
+ * 
+ * The directory is read once with {@link File#list()}, hidden entries are
+ * dropped by name before touching the file system, and every remaining
+ * entry is probed once with isDirectory() to split folders from files.
+ * Anything that is not a directory is treated as a file. Kept entries are
+ * then captured as {@link VFile} snapshots, which takes lastModified() and
+ * length() per file and lastModified() per folder. java.io.File can't fetch
+ * these with a single stat, so a file costs three calls; see ScanBenchmark
+ * in the tests. Folders are not listed to find out whether they have child
+ * directories; a completed scan records that for the scanned directory in
+ * {@link ChildDirectoryCache} instead, since it found out anyway, unless
+ * {@link #setRecordChildDirectories(boolean)} turned that off. A {@link ScanFilter} can drop more files by
+ * name before they are captured, and by size or date right after.
+ * 
+ * Huge directories can be scanned in batches: each batch is sorted and
+ * merged into the entries found so far, and the merged listing is handed
+ * to a {@link Listener}. Entries never change their relative order from
+ * one partial listing to the next, and the last one equals the result.
+ * 
+ * A scan can be cancelled from another thread; it then stops before the
+ * next entry or sort pass. Cancelled scans are counted in {@link ScanStats}.
+ */
+public class FileScanner {
+
+	public static final String HIDDEN_PREFIX = ".";
+
+	private final File mDir;
+	private final boolean mFoldersOnly;
+	private final FileSorter mSorter;
+	private final ScanFilter mFilter;
+	private boolean mRecordChildDirectories = true;
+
+	private volatile boolean mCanceled;
+
+	/**
+	 * Receives partial listings of a batched scan.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the scanning thread after each batch but the last.
+		 * 
+		 * @param files The entries scanned so far, sorted. Never modified
+		 *            afterwards.
+		 */
+		void onPartialResult(List<VFile> files);
+	}
+
+	/**
+	 * @param dir The directory to scan.
+	 * @param foldersOnly Whether files should be left out of the result.
+	 */
+	public FileScanner(File dir, boolean foldersOnly) {
+		this(dir, foldersOnly, FileSorter.SORT_NAME);
+	}
+
+	/**
+	 * @param dir The directory to scan.
+	 * @param foldersOnly Whether files should be left out of the result.
+	 * @param sortOrder One of the FileSorter SORT_ constants.
+	 */
+	public FileScanner(File dir, boolean foldersOnly, int sortOrder) {
+		this(dir, foldersOnly, sortOrder, ScanFilter.DEFAULT);
+	}
+
+	/**
+	 * @param dir The directory to scan.
+	 * @param foldersOnly Whether files should be left out of the result.
+	 * @param sortOrder One of the FileSorter SORT_ constants.
+	 * @param filter Decides which entries are kept.
+	 */
+	public FileScanner(File dir, boolean foldersOnly, int sortOrder, ScanFilter filter) {
+		mDir = dir;
+		mFoldersOnly = foldersOnly;
+		mSorter = new FileSorter(sortOrder);
+		mFilter = filter;
+	}
+
+	/**
+	 * Whether a completed scan records in {@link ChildDirectoryCache} if the
+	 * directory has child directories. On by default; walks of a whole tree
+	 * turn it off, they would evict the directories the user browses.
+	 * 
+	 * @param record
+	 */
+	public void setRecordChildDirectories(boolean record) {
+		mRecordChildDirectories = record;
+	}
+
+	/**
+	 * Stop the scan as soon as possible. May be called from any thread.
+	 */
+	public void cancel() {
+		mCanceled = true;
+		mSorter.cancel();
+	}
+
+	public boolean isCanceled() {
+		return mCanceled;
+	}
+
+	/**
+	 * Scan the directory.
+	 * 
+	 * @return Sorted folders followed by sorted files; empty if the
+	 *         directory can't be read.
+	 */
+	public List<VFile> scan() {
+		return scan(0, null);
+	}
+
+	/**
+	 * Scan the directory in batches, reporting partial listings.
+	 * 
+	 * @param batchSize Number of entries in the first batch. Each following
+	 *            batch is twice as large, which keeps the cost of merging
+	 *            linear. 0 scans in one go.
+	 * @param listener Receives the partial listings, may be null.
+	 * @return Sorted folders followed by sorted files; empty if the
+	 *         directory can't be read; null if the scan was cancelled.
+	 */
+	public List<VFile> scan(int batchSize, Listener listener) {
+		final long startTime = System.nanoTime();
+
+		// Read before the listing, a change while scanning makes it stale
+		final long lastModified = mDir.lastModified();
+		final String[] names = mDir.list();
+		if (names == null) {
+			return new ArrayList<VFile>();
+		}
+		if (batchSize <= 0 || listener == null) {
+			batchSize = names.length;
+		}
+
+		final FileSorter sorter = mSorter;
+		final ScanFilter filter = mFilter;
+		final ArrayList<VFile> dirs = new ArrayList<VFile>();
+		final ArrayList<VFile> files = new ArrayList<VFile>();
+		List<VFile> result = new ArrayList<VFile>();
+		boolean hasChildDirectories = false;
+
+		int start = 0;
+		while (start < names.length) {
+			final int end = (int) Math.min(names.length, (long) start + batchSize);
+
+			dirs.clear();
+			files.clear();
+			for (int i = start; i < end; i++) {
+				if (mCanceled) {
+					onCanceled(names.length, i, startTime);
+					return null;
+				}
+
+				final String name = names[i];
+				// Skip rejected names without a stat
+				if (!filter.acceptsName(name))
+					continue;
+
+				if (new File(mDir, name).isDirectory()) {
+					dirs.add(VFile.stat(mDir, name, true));
+					hasChildDirectories |= !name.startsWith(HIDDEN_PREFIX);
+				} else if (!mFoldersOnly && filter.acceptsFileName(name)) {
+					// Files rejected by name are never stat'ed further
+					final VFile file = VFile.stat(mDir, name, false);
+					if (filter.acceptsFile(file))
+						files.add(file);
+				}
+			}
+
+			sorter.sort(dirs);
+			sorter.sort(files);
+			if (mCanceled) {
+				onCanceled(names.length, end, startTime);
+				return null;
+			}
+
+			final List<VFile> run = new ArrayList<VFile>(dirs.size() + files.size());
+			run.addAll(dirs);
+			run.addAll(files);
+			result = result.isEmpty() ? run : sorter.merge(result, run);
+
+			start = end;
+			if (start < names.length) {
+				listener.onPartialResult(result);
+				batchSize = (int) Math.min(Integer.MAX_VALUE, 2L * batchSize);
+			}
+		}
+
+		// Hidden folders may have been skipped, but they don't count
+		if (mRecordChildDirectories)
+			ChildDirectoryCache.put(mDir, lastModified, hasChildDirectories);
+		ScanStats.onScanCompleted();
+		return result;
+	}
+
+	private static void onCanceled(int total, int done, long startTime) {
+		ScanStats.onScanCanceled(done, total - done, System.nanoTime() - startTime);
+	}
+}
@@ -0,0 +1,247 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Recursive, case insensitive file name search.
+ * 
+ * The tree is walked in parallel by a small shared pool of workers, one
+ * directory per task. Symbolic links to directories are not followed.
+ * Listings are taken from the {@link ListingCache} when the directory didn't
+ * change, but a search doesn't put its listings there, nor what it finds out
+ * into the {@link ChildDirectoryCache}: a walk of the whole tree would evict
+ * the entries of the directories the user browses. A {@link ScanFilter}
+ * decides which entries are walked and matched: its name predicates are
+ * applied while listing, like FileLoader does, the others to the matches.
+ * Matches are reported in sorted snapshots while the walk goes on.
+ */
+public class FileSearcher {
+
+	/** Directories below this depth are not searched. */
+	public static final int MAX_DEPTH = 24;
+
+	/** Minimum time between two partial results. */
+	private static final long PUBLISH_INTERVAL_MS = 100;
+
+	private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(WORKERS, WORKERS, 30,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "FileSearcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		sExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Receives sorted snapshots of the matches found so far.
+	 */
+	public interface Listener {
+		/**
+		 * Called on a worker thread, never concurrently.
+		 * 
+		 * @param matches Never modified afterwards.
+		 */
+		void onPartialResult(List<VFile> matches);
+	}
+
+	private final File mRoot;
+	private final String mQuery;
+	private final boolean mFoldersOnly;
+	private final ScanFilter mFilter;
+
+	private final Object mLock = new Object();
+	private final List<VFile> mMatches = new ArrayList<VFile>();
+	private int mPending;
+	private long mLastPublished;
+	private Listener mListener;
+
+	private volatile boolean mCanceled;
+
+	/**
+	 * @param root Where the search starts.
+	 * @param query Matched anywhere in the name, ignoring case.
+	 * @param foldersOnly Whether to only match folders.
+	 */
+	public FileSearcher(File root, String query, boolean foldersOnly) {
+		this(root, query, foldersOnly, ScanFilter.DEFAULT);
+	}
+
+	/**
+	 * @param root Where the search starts.
+	 * @param query Matched anywhere in the name, ignoring case.
+	 * @param foldersOnly Whether to only match folders.
+	 * @param filter Decides which entries are searched and matched.
+	 */
+	public FileSearcher(File root, String query, boolean foldersOnly, ScanFilter filter) {
+		mRoot = root;
+		mQuery = FileSorter.getKey(query);
+		mFoldersOnly = foldersOnly;
+		mFilter = filter;
+	}
+
+	/**
+	 * Stop the search as soon as possible. May be called from any thread.
+	 */
+	public void cancel() {
+		mCanceled = true;
+		synchronized (mLock) {
+			mLock.notifyAll();
+		}
+	}
+
+	public boolean isCanceled() {
+		return mCanceled;
+	}
+
+	/**
+	 * Search the tree, blocking until it is done. Don't call this on the UI
+	 * thread.
+	 * 
+	 * @param listener Receives partial results, may be null.
+	 * @return Matching folders followed by matching files, each sorted; null
+	 *         if the search was cancelled.
+	 */
+	public List<VFile> search(Listener listener) {
+		synchronized (mLock) {
+			mListener = listener;
+			mLastPublished = System.currentTimeMillis();
+			submit(mRoot, 0);
+
+			while (mPending > 0 && !mCanceled) {
+				try {
+					mLock.wait();
+				} catch (InterruptedException e) {
+					mCanceled = true;
+					Thread.currentThread().interrupt();
+				}
+			}
+			return mCanceled ? null : snapshot();
+		}
+	}
+
+	/**
+	 * Called with mLock held.
+	 */
+	private void submit(final File dir, final int depth) {
+		mPending++;
+		sExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!mCanceled)
+						searchDirectory(dir, depth);
+				} finally {
+					synchronized (mLock) {
+						if (--mPending == 0)
+							mLock.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	private void searchDirectory(File dir, int depth) {
+		final String path = dir.getAbsolutePath();
+		final long lastModified = dir.lastModified();
+
+		final ScanFilter nameFilter = mFilter.getNameFilter();
+		final String nameKey = nameFilter.getNameKey();
+		List<VFile> files = ListingCache.get(path, false, FileSorter.SORT_NAME, nameKey, lastModified);
+		if (files == null) {
+			final FileScanner scanner = new FileScanner(dir, false, FileSorter.SORT_NAME, nameFilter);
+			scanner.setRecordChildDirectories(false);
+			files = scanner.scan();
+		}
+
+		List<VFile> matches = null;
+		for (int i = 0, size = files.size(); i < size && !mCanceled; i++) {
+			final VFile file = files.get(i);
+			if (file.isDirectory() && depth < MAX_DEPTH && !FileUtils.isSymbolicLink(file)) {
+				synchronized (mLock) {
+					submit(file, depth + 1);
+				}
+			}
+			if ((file.isDirectory() || !mFoldersOnly) && file.getSortKey().contains(mQuery)
+					&& mFilter.accept(file)) {
+				if (matches == null)
+					matches = new ArrayList<VFile>();
+				matches.add(file);
+			}
+		}
+
+		if (matches != null)
+			addMatches(matches);
+	}
+
+	private void addMatches(List<VFile> matches) {
+		synchronized (mLock) {
+			mMatches.addAll(matches);
+
+			final long now = System.currentTimeMillis();
+			if (mListener == null || mCanceled || now - mLastPublished < PUBLISH_INTERVAL_MS)
+				return;
+			mLastPublished = now;
+			// Publish while holding the lock so snapshots arrive in order
+			mListener.onPartialResult(snapshot());
+		}
+	}
+
+	/**
+	 * Called with mLock held.
+	 */
+	private List<VFile> snapshot() {
+		final List<VFile> dirs = new ArrayList<VFile>();
+		final List<VFile> files = new ArrayList<VFile>();
+		for (VFile file : mMatches) {
+			if (file.isDirectory())
+				dirs.add(file);
+			else
+				files.add(file);
+		}
+
+		final FileSorter sorter = new FileSorter(FileSorter.SORT_NAME);
+		sorter.sort(dirs);
+		sorter.sort(files);
+		dirs.addAll(files);
+		return dirs;
+	}
+}
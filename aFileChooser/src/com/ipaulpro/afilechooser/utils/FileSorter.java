@@ -0,0 +1,348 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Sorts Files by name using precomputed lower case keys.
+ * 
+ * Each name is lower cased once into a key array, then an index array is
+ * merge sorted against the keys, so comparisons allocate nothing. VFiles
+ * carry their key already and are never lower cased again. The sort is
+ * stable. Buffers are kept between calls, so an instance must not be
+ * shared between threads, except for {@link #cancel()}.
+ */
+public class FileSorter {
+
+	/** Alphabetically by lower case name. */
+	public static final int SORT_NAME = 0;
+	/** Reverse alphabetically by lower case name. */
+	public static final int SORT_NAME_DESCENDING = 1;
+
+	private final int mOrder;
+
+	private String[] mKeys = new String[0];
+	private File[] mFiles = new File[0];
+	private int[] mIndex = new int[0];
+	private int[] mBuffer = new int[0];
+
+	private volatile boolean mCanceled;
+
+	/**
+	 * @param order One of {@link #SORT_NAME} or {@link #SORT_NAME_DESCENDING}.
+	 */
+	public FileSorter(int order) {
+		if (order != SORT_NAME && order != SORT_NAME_DESCENDING)
+			throw new IllegalArgumentException("Unknown sort order: " + order);
+		mOrder = order;
+	}
+
+	/**
+	 * Get the sort key of a file name.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static String getKey(String name) {
+		// Sort alphabetically by lower case, which is much cleaner
+		return name.toLowerCase();
+	}
+
+	private static String keyOf(File file) {
+		return file instanceof VFile ? ((VFile) file).getSortKey() : getKey(file.getName());
+	}
+
+	/**
+	 * Stop the current and any later sort as soon as possible. May be called
+	 * from any thread.
+	 */
+	public void cancel() {
+		mCanceled = true;
+	}
+
+	public boolean isCanceled() {
+		return mCanceled;
+	}
+
+	/**
+	 * Sort the list in place. If the sorter is cancelled, the list is left
+	 * in its original order.
+	 * 
+	 * @param files
+	 */
+	public <T extends File> void sort(List<T> files) {
+		final int size = files.size();
+		if (size < 2)
+			return;
+
+		ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			final File file = files.get(i);
+			mFiles[i] = file;
+			mKeys[i] = keyOf(file);
+			mIndex[i] = i;
+		}
+
+		final int[] sorted = mergeSort(size);
+
+		for (int i = 0; sorted != null && i < size; i++) {
+			@SuppressWarnings("unchecked")
+			final T file = (T) mFiles[sorted[i]];
+			files.set(i, file);
+		}
+
+		// Don't hold on to the caller's Files
+		for (int i = 0; i < size; i++) {
+			mFiles[i] = null;
+			mKeys[i] = null;
+		}
+	}
+
+	private void ensureCapacity(int size) {
+		if (mKeys.length >= size)
+			return;
+		mKeys = new String[size];
+		mFiles = new File[size];
+		mIndex = new int[size];
+		mBuffer = new int[size];
+	}
+
+	private int compare(int i1, int i2) {
+		return compareKeys(mKeys[i1], mKeys[i2]);
+	}
+
+	private int compareKeys(String key1, String key2) {
+		final int result = key1.compareTo(key2);
+		return mOrder == SORT_NAME_DESCENDING ? -result : result;
+	}
+
+	/**
+	 * Compare two entries the way listings are ordered: folders first, then
+	 * by key. Only VFiles compare without allocating.
+	 * 
+	 * @param f1
+	 * @param f2
+	 * @return
+	 */
+	public int compare(File f1, File f2) {
+		final boolean dir1 = f1.isDirectory();
+		if (dir1 != f2.isDirectory())
+			return dir1 ? -1 : 1;
+		return compareKeys(keyOf(f1), keyOf(f2));
+	}
+
+	/**
+	 * Merge two sorted listings into a new one. On ties entries of the
+	 * first listing come first, which keeps merging of consecutive runs
+	 * stable.
+	 * 
+	 * @param first Folders followed by files, each sorted in this order.
+	 * @param second Folders followed by files, each sorted in this order.
+	 * @return
+	 */
+	public <T extends File> List<T> merge(List<T> first, List<T> second) {
+		final int firstSize = first.size();
+		final int secondSize = second.size();
+		final List<T> merged = new ArrayList<T>(firstSize + secondSize);
+
+		int i = 0, j = 0;
+		while (i < firstSize && j < secondSize) {
+			if (compare(second.get(j), first.get(i)) < 0)
+				merged.add(second.get(j++));
+			else
+				merged.add(first.get(i++));
+		}
+		while (i < firstSize)
+			merged.add(first.get(i++));
+		while (j < secondSize)
+			merged.add(second.get(j++));
+		return merged;
+	}
+
+	/**
+	 * Merge any number of sorted listings into a new one, taking the least
+	 * head of all listings through a binary heap. On ties entries of
+	 * earlier listings come first.
+	 * 
+	 * @param listings Each holding folders followed by files, each sorted in
+	 *            this order.
+	 * @return
+	 */
+	public <T extends File> List<T> merge(List<? extends List<T>> listings) {
+		final int count = listings.size();
+		final int[] heap = new int[count];
+		final int[] positions = new int[count];
+		int heapSize = 0;
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			final int size = listings.get(i).size();
+			total += size;
+			if (size > 0)
+				heap[heapSize++] = i;
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; i--)
+			siftDown(listings, positions, heap, heapSize, i);
+
+		final List<T> merged = new ArrayList<T>(total);
+		while (heapSize > 0) {
+			final int listing = heap[0];
+			final List<T> files = listings.get(listing);
+			merged.add(files.get(positions[listing]++));
+			if (positions[listing] == files.size())
+				heap[0] = heap[--heapSize];
+			siftDown(listings, positions, heap, heapSize, 0);
+		}
+		return merged;
+	}
+
+	private <T extends File> void siftDown(List<? extends List<T>> listings, int[] positions,
+			int[] heap, int heapSize, int node) {
+		while (true) {
+			final int left = 2 * node + 1;
+			if (left >= heapSize)
+				return;
+			int least = left;
+			final int right = left + 1;
+			if (right < heapSize && precedes(listings, positions, heap[right], heap[left]))
+				least = right;
+			if (!precedes(listings, positions, heap[least], heap[node]))
+				return;
+			final int swap = heap[node];
+			heap[node] = heap[least];
+			heap[least] = swap;
+			node = least;
+		}
+	}
+
+	/**
+	 * @return Whether the head of listing l1 goes before the head of l2.
+	 */
+	private <T extends File> boolean precedes(List<? extends List<T>> listings, int[] positions,
+			int l1, int l2) {
+		final int result = compare(listings.get(l1).get(positions[l1]), listings.get(l2).get(positions[l2]));
+		return result < 0 || (result == 0 && l1 < l2);
+	}
+
+	/**
+	 * Binary search for where an entry belongs in a sorted listing.
+	 * 
+	 * @param files Folders followed by files, each sorted in this order.
+	 * @param file
+	 * @return The index to insert at, after any equal entries.
+	 */
+	public int insertionPoint(List<? extends File> files, File file) {
+		int low = 0;
+		int high = files.size();
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (compare(files.get(mid), file) <= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Binary search for an entry of a sorted listing by name, whether it is
+	 * a folder or a file.
+	 * 
+	 * @param files Folders followed by files, each sorted in this order.
+	 * @param name
+	 * @return The index of the entry, or -1.
+	 */
+	public int indexOf(List<? extends File> files, String name) {
+		final String key = getKey(name);
+		final int folders = countFolders(files);
+		final int index = indexOf(files, 0, folders, key, name);
+		return index >= 0 ? index : indexOf(files, folders, files.size(), key, name);
+	}
+
+	private int indexOf(List<? extends File> files, int low, int high, String key, String name) {
+		// Find the first entry with an equal key...
+		int end = high;
+		while (low < end) {
+			final int mid = (low + end) >>> 1;
+			if (compareKeys(keyOf(files.get(mid)), key) < 0)
+				low = mid + 1;
+			else
+				end = mid;
+		}
+		// ...then look for the exact name among the entries sharing it
+		for (int i = low; i < high; i++) {
+			final File other = files.get(i);
+			if (other.getName().equals(name))
+				return i;
+			if (!keyOf(other).equals(key))
+				break;
+		}
+		return -1;
+	}
+
+	private static int countFolders(List<? extends File> files) {
+		int low = 0;
+		int high = files.size();
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (files.get(mid).isDirectory())
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Bottom-up merge sort of mIndex against mKeys.
+	 * 
+	 * @return The array holding the sorted indices, or null if cancelled.
+	 */
+	private int[] mergeSort(int size) {
+		int[] src = mIndex;
+		int[] dst = mBuffer;
+
+		for (int width = 1; width < size; width <<= 1) {
+			if (mCanceled)
+				return null;
+			for (int lo = 0; lo < size; lo += width << 1) {
+				final int mid = Math.min(lo + width, size);
+				final int hi = Math.min(lo + (width << 1), size);
+				int left = lo, right = mid, out = lo;
+				while (left < mid && right < hi) {
+					// Take from the left on ties to keep the sort stable
+					if (compare(src[right], src[left]) < 0)
+						dst[out++] = src[right++];
+					else
+						dst[out++] = src[left++];
+				}
+				while (left < mid)
+					dst[out++] = src[left++];
+				while (right < hi)
+					dst[out++] = src[right++];
+			}
+			final int[] swap = src;
+			src = dst;
+			dst = swap;
+		}
+		return src;
+	}
+}
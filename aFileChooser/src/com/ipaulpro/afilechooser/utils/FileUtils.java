@@ -17,27 +17,25 @@
 package com.ipaulpro.afilechooser.utils;
 
 import java.io.File;
-import java.io.FileFilter;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.XmlResourceParser;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Audio;
 import android.provider.MediaStore.Video;
 import android.util.Log;
 
-import com.ipaulpro.afilechooser.R;
+import com.ipaulpro.afilechooser.VFile;
 
 /**
  * @version 2009-07-03
@@ -251,6 +249,17 @@ public class FileUtils {
 	 * @author paulburke
 	 */
 	public static String getReadableFileSize(int size) {
+		return getReadableFileSize((long) size);
+	}
+
+	/**
+	 * Get the size in a human-readable string, for sizes beyond 2 GB such as
+	 * directory totals.
+	 * 
+	 * @param size
+	 * @return
+	 */
+	public static String getReadableFileSize(long size) {
 		final int BYTES_IN_KILOBYTES = 1024;
 		final DecimalFormat dec = new DecimalFormat("###.#");
 		final String KILOBYTES = " KB";
@@ -274,25 +283,6 @@ public class FileUtils {
 		return String.valueOf(dec.format(fileSize)+suffix);
 	}
 
-	/**
-	 * Load MIME types from XML
-	 * 
-	 * @param context
-	 * @return
-	 */
-	private static MimeTypes getMimeTypes(Context context) {
-		MimeTypes mimeTypes = null;
-		final MimeTypeParser mtp = new MimeTypeParser();
-		final XmlResourceParser in = context.getResources().getXml(R.xml.mimetypes);
-
-		try {
-			mimeTypes = mtp.fromXmlResource(in);
-		} catch (Exception e) {
-			if(DEBUG) Log.e(TAG, "getMimeTypes", e);
-		}
-		return mimeTypes;
-	} 
-
 	/**
 	 * Get the file MIME type
 	 * 
@@ -302,13 +292,16 @@ public class FileUtils {
 	 */
 	public static String getMimeType(Context context, File file) {
 		String mimeType = null;
-		final MimeTypes mimeTypes = getMimeTypes(context);
+		final MimeTypes mimeTypes = MimeTypes.getInstance(context);
 		if (file != null) mimeType = mimeTypes.getMimeType(file.getName());
 		return mimeType;
 	}
 
 	/**
 	 * Attempt to retrieve the thumbnail of given File from the MediaStore.
+	 * The media id is looked up in the {@link MediaStoreIndex} of the
+	 * file's directory, so a directory full of images doesn't cost a
+	 * query per file.
 	 * 
 	 * This should not be called on the UI thread.
 	 * 
@@ -319,7 +312,30 @@ public class FileUtils {
 	 * @author paulburke
 	 */
 	public static Bitmap getThumbnail(Context context, File file) {
-		return getThumbnail(context, getUri(file), getMimeType(context, file));
+		final String mimeType = getMimeType(context, file);
+		final File dir = file.getParentFile();
+		if (dir == null)
+			return null;
+
+		final boolean video = mimeType.startsWith("video/");
+		if (!video && !mimeType.startsWith("image/"))
+			return null;
+
+		final MediaStoreIndex index = MediaStoreIndex.get(context, dir);
+		final long id = video ? index.getVideoId(file.getName()) : index.getImageId(file.getName());
+		if (id < 0)
+			return null;
+
+		final ContentResolver resolver = context.getContentResolver();
+		try {
+			if (video)
+				return Video.Thumbnails.getThumbnail(resolver, id, Video.Thumbnails.MINI_KIND, null);
+			return MediaStore.Images.Thumbnails.getThumbnail(resolver, id,
+					MediaStore.Images.Thumbnails.MINI_KIND, null);
+		} catch (Exception e) {
+			if(DEBUG) Log.e(TAG, "getThumbnail", e);
+			return null;
+		}
 	}
 	
 	/**
@@ -391,94 +407,121 @@ public class FileUtils {
 		return bm;
 	}
 	
-	private static final String HIDDEN_PREFIX = ".";
-
 	/**
-	 * File and folder comparator.
-	 * TODO Expose sorting option method 
+	 * Decode an image file at a reduced resolution. The image is subsampled
+	 * by the largest power of two that keeps its shorter side at least
+	 * size pixels, so only a fraction of it is ever held in memory.
 	 * 
-	 * @author paulburke
+	 * This should not be called on the UI thread.
+	 * 
+	 * @param file
+	 * @param size Minimum length of the shorter side, in pixels.
+	 * @return null if the file can't be decoded.
 	 */
-	private static Comparator<File> mComparator = new Comparator<File>() {
-		public int compare(File f1, File f2) {
-			// Sort alphabetically by lower case, which is much cleaner
-			return f1.getName().toLowerCase().compareTo(
-					f2.getName().toLowerCase());
-		}
-	};
+	public static Bitmap decodeSampledBitmap(File file, int size) {
+		final String path = file.getAbsolutePath();
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0)
+			return null;
+
+		final int shorter = Math.min(options.outWidth, options.outHeight);
+		int sampleSize = 1;
+		while (shorter / (sampleSize * 2) >= size)
+			sampleSize *= 2;
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		return BitmapFactory.decodeFile(path, options);
+	}
 	
 	/**
-	 * File (not directories) filter.
+	 * Get a list of Files in the give path
 	 * 
+	 * @param path
+	 * @return Collection of files in give directory
+
 	 * @author paulburke
 	 */
-	private static FileFilter mFileFilter = new FileFilter() {
-		public boolean accept(File file) {
-			final String fileName = file.getName();
-			// Return files only (not directories) and skip hidden files
-			return file.isFile() && !fileName.startsWith(HIDDEN_PREFIX);
-		}
-	};
-	
+	public static List<File> getFileList(String path, boolean aFolderBrowser ) {
+		return getFileList(path, aFolderBrowser, FileSorter.SORT_NAME);
+	}
+
 	/**
-	 * Folder (directories) filter.
+	 * Get a list of Files in the give path
 	 * 
-	 * @author paulburke
+	 * @param path
+	 * @param aFolderBrowser Whether to list folders only
+	 * @param sortOrder One of the FileSorter SORT_ constants
+	 * @return Collection of files in give directory
 	 */
-	private static FileFilter mDirFilter = new FileFilter() {
-		public boolean accept(File file) {
-			final String fileName = file.getName();
-			// Return directories only and skip hidden directories
-			return file.isDirectory() && !fileName.startsWith(HIDDEN_PREFIX);
-		}
-	};
-	
+	public static List<File> getFileList(String path, boolean aFolderBrowser, int sortOrder ) {
+		return getFileList(path, aFolderBrowser, sortOrder, ScanFilter.DEFAULT);
+	}
+
 	/**
 	 * Get a list of Files in the give path
 	 * 
 	 * @param path
+	 * @param aFolderBrowser Whether to list folders only
+	 * @param sortOrder One of the FileSorter SORT_ constants
+	 * @param filter Decides which entries are listed, by name before they
+	 *            are stat'ed
 	 * @return Collection of files in give directory
-
-	 * @author paulburke
 	 */
-	public static List<File> getFileList(String path, boolean aFolderBrowser ) {
-		ArrayList<File> list = new ArrayList<File>();
-
-		// Current directory File instance
-		final File pathDir = new File(path);
-		
-		// List file in this directory with the directory filter
-		final File[] dirs = pathDir.listFiles(mDirFilter);
-		if (dirs != null) {
-			// Sort the folders alphabetically
-			Arrays.sort(dirs, mComparator);
-			// Add each folder to the File list for the list adapter
-			for (File dir : dirs) list.add(dir);
-		}
-		
-		// if folders only
-		if( aFolderBrowser ) {
-			return list ;
-		}
+	public static List<File> getFileList(String path, boolean aFolderBrowser, int sortOrder,
+			ScanFilter filter ) {
+		return new ArrayList<File>(getVFileList(path, aFolderBrowser, sortOrder, filter));
+	}
 
-		// List file in this directory with the file filter
-		final File[] files = pathDir.listFiles(mFileFilter);
-		if (files != null) {
-			// Sort the files alphabetically
-			Arrays.sort(files, mComparator);
-			// Add each file to the File list for the list adapter
-			for (File file : files) list.add(file);
-		}		
-		
-		return list;
+	/**
+	 * Get the snapshots of the files in the give path
+	 * 
+	 * @param path
+	 * @param aFolderBrowser Whether to list folders only
+	 * @param sortOrder One of the FileSorter SORT_ constants
+	 * @param filter Decides which entries are listed, by name before they
+	 *            are stat'ed
+	 * @return Collection of files in give directory, never modified
+	 *         afterwards
+	 * @see #getFileList(String, boolean, int, ScanFilter)
+	 */
+	public static List<VFile> getVFileList(String path, boolean aFolderBrowser, int sortOrder,
+			ScanFilter filter ) {
+		return new FileScanner(new File(path), aFolderBrowser, sortOrder, filter).scan();
 	}
 	
+	/**
+	 * Whether the directory has non-hidden child directories. Results are
+	 * cached per path and modification time, see ChildDirectoryCache.
+	 * 
+	 * This should not be called on the UI thread.
+	 * 
+	 * @param file
+	 * @return
+	 */
 	public static boolean hasChildDirectories( File file ) {
-		final File[] dirs = file.listFiles(mDirFilter);
-		if( dirs != null  &&  dirs.length > 0 ) {
-			return true ;
+		return ChildDirectoryCache.get(file);
+	}
+
+	/**
+	 * Whether the file is a symbolic link, so recursive walks can skip links
+	 * to directories instead of following them into loops. Resolves the
+	 * parent, so this should not be called on the UI thread.
+	 * 
+	 * @param file
+	 * @return true if the link can't be resolved either.
+	 */
+	public static boolean isSymbolicLink( File file ) {
+		try {
+			final File parent = file.getParentFile();
+			final File unresolved = parent == null ? file
+					: new File(parent.getCanonicalFile(), file.getName());
+			return !unresolved.getCanonicalFile().equals(unresolved.getAbsoluteFile());
+		} catch (IOException e) {
+			return true;
 		}
-		return false ;
 	}
 
 	/**
@@ -489,10 +532,21 @@ public class FileUtils {
 	 * @author paulburke
 	 */
 	public static Intent createGetContentIntent() {
+		return createGetContentIntent("*/*");
+	}
+
+	/**
+	 * Get the Intent for selecting content of a given type to be used in an
+	 * Intent Chooser. The chooser only lists files of that type.
+	 * 
+	 * @param mimeType A type like application/pdf or a class like image/*
+	 * @return The intent for opening a file with Intent.createChooser()
+	 */
+	public static Intent createGetContentIntent(String mimeType) {
 		// Implicitly allow the user to select a particular kind of data
 		final Intent intent = new Intent(Intent.ACTION_GET_CONTENT); 
 		// The MIME data type filter
-		intent.setType("*/*"); 
+		intent.setType(mimeType); 
 		// Only return URIs that can be opened with ContentResolver
 		intent.addCategory(Intent.CATEGORY_OPENABLE);
 		return intent;
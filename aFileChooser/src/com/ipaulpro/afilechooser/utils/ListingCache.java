@@ -0,0 +1,105 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.util.List;
+
+import android.support.v4.util.LruCache;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Process-wide LRU cache of sorted directory listings, keyed by path and
+ * listing options, including the name predicates of the
+ * {@link ScanFilter} the listing was scanned with, and validated against the directory's modification
+ * time. The cache is bounded by the total number of cached entries.
+ * 
+ * Cached lists are shared and must never be modified.
+ */
+public class ListingCache {
+
+	private static final int MAX_ENTRIES = 16 * 1024;
+
+	private static final LruCache<String, Listing> sCache = new LruCache<String, Listing>(MAX_ENTRIES) {
+		@Override
+		protected int sizeOf(String key, Listing value) {
+			return value.files.size() + 1;
+		}
+	};
+
+	private static class Listing {
+		final long lastModified;
+		final List<VFile> files;
+
+		Listing(long lastModified, List<VFile> files) {
+			this.lastModified = lastModified;
+			this.files = files;
+		}
+	}
+
+	private ListingCache() {
+	}
+
+	private static String key(String path, boolean foldersOnly, int sortOrder, String nameKey) {
+		final String prefix = (foldersOnly ? "d" : "f") + sortOrder;
+		return nameKey.length() == 0 ? prefix + path : prefix + nameKey + '\0' + path;
+	}
+
+	/**
+	 * Get a listing scanned with a filter's name predicates, if the directory
+	 * didn't change since it was cached.
+	 * 
+	 * @param path Absolute path of the directory.
+	 * @param foldersOnly
+	 * @param sortOrder
+	 * @param nameKey See {@link ScanFilter#getNameKey()}.
+	 * @param lastModified The current modification time of the directory.
+	 * @return The listing, or null.
+	 */
+	public static List<VFile> get(String path, boolean foldersOnly, int sortOrder, String nameKey,
+			long lastModified) {
+		final Listing listing = sCache.get(key(path, foldersOnly, sortOrder, nameKey));
+		if (listing == null || listing.lastModified != lastModified)
+			return null;
+		return listing.files;
+	}
+
+	/**
+	 * Get the last known listing without checking whether it is still valid.
+	 * Never touches the file system, so it is safe on the UI thread.
+	 * 
+	 * @param nameKey See {@link ScanFilter#getNameKey()}.
+	 * @return The listing, or null.
+	 */
+	public static List<VFile> peek(String path, boolean foldersOnly, int sortOrder, String nameKey) {
+		final Listing listing = sCache.get(key(path, foldersOnly, sortOrder, nameKey));
+		return listing == null ? null : listing.files;
+	}
+
+	/**
+	 * @param path Absolute path of the directory.
+	 * @param foldersOnly
+	 * @param sortOrder
+	 * @param nameKey See {@link ScanFilter#getNameKey()}.
+	 * @param lastModified The modification time read before the scan started.
+	 * @param files
+	 */
+	public static void put(String path, boolean foldersOnly, int sortOrder, String nameKey,
+			long lastModified, List<VFile> files) {
+		sCache.put(key(path, foldersOnly, sortOrder, nameKey), new Listing(lastModified, files));
+	}
+}
@@ -0,0 +1,134 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Speculatively lists directories the user is likely to open next, so
+ * navigating into them renders from the {@link ListingCache}.
+ * 
+ * A single low priority thread works through at most
+ * {@link #MAX_PREFETCH} directories per request. A new request replaces
+ * whatever the previous one didn't get to yet.
+ */
+public class ListingPrefetcher {
+
+	/** Directories prefetched per request. */
+	public static final int MAX_PREFETCH = 8;
+
+	private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1, 30,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "ListingPrefetcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		sExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/** Most recently modified first. */
+	private static final Comparator<File> sLikelihood = new Comparator<File>() {
+		@Override
+		public int compare(File f1, File f2) {
+			final long m1 = f1.lastModified();
+			final long m2 = f2.lastModified();
+			return m1 > m2 ? -1 : (m1 < m2 ? 1 : 0);
+		}
+	};
+
+	private ListingPrefetcher() {
+	}
+
+	/**
+	 * Prefetch listings of the given candidates, ignoring anything that isn't
+	 * a directory. Recently modified directories are considered more likely
+	 * to be opened and go first. Cheap enough to call on the UI thread.
+	 * 
+	 * @param candidates For instance, the entries currently visible.
+	 * @param foldersOnly Listing option, as passed to FileScanner.
+	 * @param sortOrder Listing option, as passed to FileScanner.
+	 * @param filter The filter the listings will be shown with. Only its
+	 *            name predicates are applied, like FileLoader does.
+	 */
+	public static void prefetch(List<VFile> candidates, boolean foldersOnly, int sortOrder,
+			ScanFilter filter) {
+		final List<VFile> dirs = new ArrayList<VFile>();
+		for (VFile file : candidates) {
+			if (file.isDirectory())
+				dirs.add(file);
+		}
+		Collections.sort(dirs, sLikelihood);
+
+		// Forget about the previous request
+		sExecutor.getQueue().clear();
+
+		final ScanFilter nameFilter = filter.getNameFilter();
+		final int count = Math.min(dirs.size(), MAX_PREFETCH);
+		for (int i = 0; i < count; i++)
+			sExecutor.execute(new PrefetchTask(dirs.get(i), foldersOnly, sortOrder, nameFilter));
+	}
+
+	private static class PrefetchTask implements Runnable {
+		private final File mDir;
+		private final boolean mFoldersOnly;
+		private final int mSortOrder;
+		private final ScanFilter mNameFilter;
+
+		PrefetchTask(File dir, boolean foldersOnly, int sortOrder, ScanFilter nameFilter) {
+			mDir = dir;
+			mFoldersOnly = foldersOnly;
+			mSortOrder = sortOrder;
+			mNameFilter = nameFilter;
+		}
+
+		@Override
+		public void run() {
+			final String path = mDir.getAbsolutePath();
+			final long lastModified = mDir.lastModified();
+			final String nameKey = mNameFilter.getNameKey();
+			if (ListingCache.get(path, mFoldersOnly, mSortOrder, nameKey, lastModified) != null)
+				return;
+
+			final List<VFile> files = new FileScanner(mDir, mFoldersOnly, mSortOrder, mNameFilter).scan();
+			if (files != null)
+				ListingCache.put(path, mFoldersOnly, mSortOrder, nameKey, lastModified, files);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.provider.MediaStore.MediaColumns;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * MediaStore ids of the images and videos directly in a directory.
+ * 
+ * A directory costs one projected query per media table, instead of one
+ * query per file. Indexes are cached per path like the listings and
+ * rebuilt when the directory's modification time changes.
+ */
+public class MediaStoreIndex {
+	private static final String TAG = "MediaStoreIndex";
+	private static final boolean DEBUG = false; // Set to true to enable logging
+
+	/** Indexed directories kept in memory. */
+	private static final int MAX_DIRECTORIES = 64;
+
+	private static final String[] PROJECTION = {
+			MediaColumns._ID, MediaColumns.DATA
+	};
+	/** Files under the directory, but not in its subdirectories. */
+	private static final String SELECTION = MediaColumns.DATA + " LIKE ? ESCAPE '\\' AND "
+			+ MediaColumns.DATA + " NOT LIKE ? ESCAPE '\\'";
+
+	private static final LruCache<String, MediaStoreIndex> sCache =
+			new LruCache<String, MediaStoreIndex>(MAX_DIRECTORIES);
+
+	/** Locks of the directories being indexed, by path. Guarded by itself. */
+	private static final Map<String, DirectoryLock> sLocks = new HashMap<String, DirectoryLock>();
+
+	private static class DirectoryLock {
+		/** Callers holding or waiting for the lock. */
+		int users;
+	}
+
+	private final long mLastModified;
+	private final Map<String, Long> mImages;
+	private final Map<String, Long> mVideos;
+
+	private MediaStoreIndex(long lastModified, Map<String, Long> images, Map<String, Long> videos) {
+		mLastModified = lastModified;
+		mImages = images;
+		mVideos = videos;
+	}
+
+	/**
+	 * Get the index of a directory, querying the MediaStore unless it is
+	 * cached. Concurrent callers for the same directory wait for a single
+	 * query, other directories are queried in parallel.
+	 * 
+	 * This should not be called on the UI thread.
+	 */
+	public static MediaStoreIndex get(Context context, File dir) {
+		final String path = dir.getAbsolutePath();
+		final long lastModified = dir.lastModified();
+		MediaStoreIndex index = sCache.get(path);
+		if (index != null && index.mLastModified == lastModified)
+			return index;
+
+		DirectoryLock lock;
+		synchronized (sLocks) {
+			lock = sLocks.get(path);
+			if (lock == null) {
+				lock = new DirectoryLock();
+				sLocks.put(path, lock);
+			}
+			lock.users++;
+		}
+		try {
+			synchronized (lock) {
+				// Indexed while waiting for the lock
+				index = sCache.get(path);
+				if (index != null && index.mLastModified == lastModified)
+					return index;
+
+				final ContentResolver resolver = context.getContentResolver();
+				index = new MediaStoreIndex(lastModified,
+						query(resolver, MediaStore.Images.Media.EXTERNAL_CONTENT_URI, path),
+						query(resolver, MediaStore.Video.Media.EXTERNAL_CONTENT_URI, path));
+				sCache.put(path, index);
+				return index;
+			}
+		} finally {
+			synchronized (sLocks) {
+				if (--lock.users == 0)
+					sLocks.remove(path);
+			}
+		}
+	}
+
+	/**
+	 * @return The id in the Images table, or -1 if the MediaStore doesn't know the file.
+	 */
+	public long getImageId(String name) {
+		final Long id = mImages.get(name);
+		return id == null ? -1 : id.longValue();
+	}
+
+	/**
+	 * @return The id in the Video table, or -1 if the MediaStore doesn't know the file.
+	 */
+	public long getVideoId(String name) {
+		final Long id = mVideos.get(name);
+		return id == null ? -1 : id.longValue();
+	}
+
+	/**
+	 * @return Ids of the files directly in the directory, by name.
+	 */
+	private static Map<String, Long> query(ContentResolver resolver, Uri uri, String dir) {
+		final Map<String, Long> ids = new HashMap<String, Long>();
+		final String[] args = {
+				escape(dir) + "/%", escape(dir) + "/%/%"
+		};
+
+		Cursor cursor = null;
+		try {
+			cursor = resolver.query(uri, PROJECTION, SELECTION, args, null);
+			if (cursor == null)
+				return ids;
+
+			final int idColumn = cursor.getColumnIndexOrThrow(MediaColumns._ID);
+			final int dataColumn = cursor.getColumnIndexOrThrow(MediaColumns.DATA);
+			final int nameStart = dir.length() + 1;
+			while (cursor.moveToNext()) {
+				final String data = cursor.getString(dataColumn);
+				// LIKE ignores case, the file system doesn't
+				if (data != null && data.startsWith(dir) && data.indexOf('/', nameStart) < 0)
+					ids.put(data.substring(nameStart), cursor.getLong(idColumn));
+			}
+		} catch (RuntimeException e) {
+			if (DEBUG) Log.e(TAG, "Querying " + uri + " for " + dir, e);
+		} finally {
+			if (cursor != null)
+				cursor.close();
+		}
+		return ids;
+	}
+
+	private static String escape(String path) {
+		return path.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+}
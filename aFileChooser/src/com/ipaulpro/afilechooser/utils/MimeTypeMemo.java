@@ -0,0 +1,88 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Small lock-free memo of resolved MIME types by exact extension.
+ * 
+ * Slots are direct mapped from a hash of the extension characters, so a
+ * lookup is one probe and a character compare, straight from a range of a
+ * file name. A colliding extension simply replaces the slot. Unknown
+ * extensions are memoized as well, their answer is null.
+ */
+class MimeTypeMemo {
+
+	/** Must be a power of two. */
+	private static final int SLOTS = 512;
+
+	private static final int FNV_OFFSET = 0x811c9dc5;
+	private static final int FNV_PRIME = 0x01000193;
+
+	private static class Entry {
+		final String extension;
+		final String mimeType;
+
+		Entry(String extension, String mimeType) {
+			this.extension = extension;
+			this.mimeType = mimeType;
+		}
+	}
+
+	/** Result of {@link #get} for an extension that isn't memoized. */
+	static final String MISS = new String("miss");
+
+	private final AtomicReferenceArray<Entry> mSlots = new AtomicReferenceArray<Entry>(SLOTS);
+
+	/**
+	 * @return The memoized MIME type, null if the extension is memoized as
+	 *         unknown, {@link #MISS} if it isn't memoized.
+	 */
+	String get(CharSequence chars, int start, int end) {
+		final Entry entry = mSlots.get(slot(chars, start, end));
+		if (entry == null || !matches(entry.extension, chars, start, end))
+			return MISS;
+		return entry.mimeType;
+	}
+
+	/**
+	 * @param mimeType null to memoize the extension as unknown.
+	 */
+	void put(CharSequence chars, int start, int end, String mimeType) {
+		mSlots.set(slot(chars, start, end),
+				new Entry(chars.subSequence(start, end).toString(), mimeType));
+	}
+
+	private static int slot(CharSequence chars, int start, int end) {
+		int hash = FNV_OFFSET;
+		for (int i = start; i < end; i++)
+			hash = (hash ^ chars.charAt(i)) * FNV_PRIME;
+		return (hash ^ (hash >>> 16)) & (SLOTS - 1);
+	}
+
+	private static boolean matches(String extension, CharSequence chars, int start, int end) {
+		final int length = end - start;
+		if (extension.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (extension.charAt(i) != chars.charAt(start + i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -19,6 +19,8 @@ package com.ipaulpro.afilechooser.utils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -35,7 +37,7 @@ public class MimeTypeParser {
 	public static final String ATTR_MIMETYPE = "mimetype";
 	
 	private XmlPullParser mXpp;
-	private MimeTypes mMimeTypes;
+	private Map<String, String> mMimeTypes;
     
 	public MimeTypeParser() {
 	}
@@ -60,7 +62,7 @@ public class MimeTypeParser {
 	public MimeTypes parse()
 			throws XmlPullParserException, IOException {
 		
-		mMimeTypes = new MimeTypes();
+		mMimeTypes = new HashMap<String, String>();
 		
 		int eventType = mXpp.getEventType();
 
@@ -82,14 +84,15 @@ public class MimeTypeParser {
 			eventType = mXpp.next();
 		}
 
-		return mMimeTypes;
+		return new MimeTypes(mMimeTypes);
 	}
 	
 	private void addMimeTypeStart() {
 		String extension = mXpp.getAttributeValue(null, ATTR_EXTENSION);
 		String mimetype = mXpp.getAttributeValue(null, ATTR_MIMETYPE);
 		
-		mMimeTypes.put(extension, mimetype);
+		// Convert extensions to lower case letters for easier comparison
+		mMimeTypes.put(extension.toLowerCase(), mimetype);
 	}
 	
 }
@@ -0,0 +1,77 @@
+// Generated from res/xml/mimetypes.xml by the generateMimeTypeTable task
+// in build.gradle. Don't edit, change the XML and run the task instead.
+
+package com.ipaulpro.afilechooser.utils;
+
+/**
+ * The extension table of res/xml/mimetypes.xml, hashed ahead of time.
+ */
+final class MimeTypeTable {
+
+	private static final String CHARS = "3gp3gppaacaifaifcaiffamrapkavibmpcsscsvdocdocxflvgifgzhtmhtmliconjarjpegjpgm3um4am4pm4umidmidimovmp2mp3mp4mpempegmpgmpgamxuoggpdfphppngpptqtraramrarrtftiftifftxtwavwmxxlsxmlzip";
+
+	private static final int[] OFFSETS = {
+		0, 3, 7, 10, 13, 17, 21, 24, 27, 30, 33, 36, 39, 42, 46, 49,
+		52, 54, 57, 61, 65, 68, 72, 75, 78, 81, 84, 87, 90, 94, 97, 100,
+		103, 106, 109, 113, 116, 120, 123, 126, 129, 132, 135, 138, 140, 142, 145, 148,
+		151, 154, 158, 161, 164, 167, 170, 173, 176 };
+
+	private static final String[] MIME_TYPES = {
+		"video/3gpp", "video/3gpp", "audio/x-aac", "audio/x-aiff",
+		"audio/x-aiff", "audio/x-aiff", "audio/AMR", "application/vnd.android.package-archive",
+		"video/x-msvideo", "image/bmp", "text/css", "text/csv",
+		"application/msword", "application/msword", "video/x-flv", "image/gif",
+		"application/gzip", "text/html", "text/html", "image/x-icon",
+		"application/java-archive", "image/jpeg", "image/jpeg", "audio/x-mpegurl",
+		"audio/mp4a-latm", "audio/mp4a-latm", "video/vnd.mpegurl", "audio/mid",
+		"audio/midi", "video/quicktime", "audio/mpeg", "audio/mpeg",
+		"video/mpeg", "video/mpeg", "video/mpeg", "video/mpeg",
+		"audio/mpeg", "video/vnd.mpegurl", "audio/x-ogg", "application/pdf",
+		"text/php ", "image/png", "application/vnd.ms-powerpoint", "video/quicktime",
+		"audio/x-pn-realaudio", "audio/x-pn-realaudio", "application/x-rar-compressed", "text/rtf",
+		"image/tiff", "image/tiff", "text/plain", "audio/wav",
+		"video/x-ms-wmv", "application/vnd.ms-excel", "text/xml", "application/zip" };
+
+	private static final int[] SLOTS = {
+		0, 0, 0, 0, 0, 51, 0, 18, 0, 0, 0, 0, 0, 0, 7, 0,
+		12, 0, 0, 44, 0, 0, 0, 0, 0, 0, 0, 0, 29, 0, 0, 0,
+		0, 0, 0, 0, 0, 54, 0, 0, 0, 0, 0, 9, 0, 0, 34, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 35, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 11, 43, 0, 15, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 27, 0, 0, 0, 0, 0,
+		0, 24, 0, 0, 0, 0, 0, 56, 0, 0, 38, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 16, 0, 0, 0, 0, 6, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 37, 0, 53, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 47, 0, 0, 0, 0, 0, 0,
+		0, 52, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 28, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 26, 0, 0, 0, 5, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		46, 0, 0, 0, 0, 0, 0, 0, 31, 0, 0, 0, 0, 0, 0, 17,
+		0, 25, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3,
+		0, 0, 22, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 41, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 42, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 49, 0, 20, 0, 0, 21, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 30, 0, 0, 0, 8, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 32, 0, 0, 0, 0,
+		0, 0, 0, 0, 14, 0, 0, 0, 0, 0, 39, 0, 0, 0, 33, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 4, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 55, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 19, 0, 0, 0, 0, 0, 0, 0, 10, 0,
+		0, 0, 0, 0, 23, 0, 0, 2, 36, 0, 0, 0, 0, 0, 0, 0,
+		0, 13, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 40, 0, 0, 0,
+		50, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 45,
+		0, 0, 0, 0, 48, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	private static final int SEED = 535203586;
+
+	private MimeTypeTable() {
+	}
+
+	static ExtensionTable create() {
+		return new ExtensionTable(CHARS.toCharArray(), OFFSETS, MIME_TYPES, SLOTS, SEED);
+	}
+}
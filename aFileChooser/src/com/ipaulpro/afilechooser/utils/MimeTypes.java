@@ -16,55 +16,201 @@
 
 package com.ipaulpro.afilechooser.utils;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
+import android.content.Context;
 import android.net.Uri;
 import android.webkit.MimeTypeMap;
 
+/**
+ * Extension to MIME type table.
+ * 
+ * Use {@link #getInstance(Context)} to get the table of
+ * res/xml/mimetypes.xml. It is compiled into a compact
+ * {@link ExtensionTable} at build time, see {@link MimeTypeTable}, so
+ * nothing is parsed at run time, and is safe to share between threads.
+ * Types added with {@link #put(String, String)} take precedence over the
+ * table of their instance.
+ * 
+ * Lookups work on a range of the characters of a name. The answer for each
+ * extension, whether from the framework's MimeTypeMap or from the table, is
+ * memoized, so resolving a whole listing costs one hash probe per entry
+ * and no string copies once its extensions have been seen.
+ */
 public class MimeTypes {
+	private static final MimeTypes sInstance = new MimeTypes(MimeTypeTable.create());
 
-	private Map<String, String> mMimeTypes;
+	private final ExtensionTable mMimeTypes;
+	/** Types added with put(), by lower case extension without the dot. */
+	private final Map<String, String> mOverrides = new ConcurrentHashMap<String, String>();
+	private volatile MimeTypeMemo mMemo = new MimeTypeMemo();
 
+	/**
+	 * Create an empty table, to be filled with {@link #put(String, String)}.
+	 * Prefer {@link #getInstance(Context)}.
+	 */
 	public MimeTypes() {
-		mMimeTypes = new HashMap<String,String>();
+		this(new HashMap<String, String>());
 	}
-	
-	public void put(String type, String extension) {
+
+	MimeTypes(Map<String, String> mimeTypes) {
+		this(new ExtensionTable(mimeTypes));
+	}
+
+	MimeTypes(ExtensionTable mimeTypes) {
+		mMimeTypes = mimeTypes;
+	}
+
+	/**
+	 * Get the process-wide MIME type table of res/xml/mimetypes.xml. The
+	 * table is compiled in, so it doesn't need the context's resources.
+	 * 
+	 * @param context May be null.
+	 * @return
+	 */
+	public static MimeTypes getInstance(Context context) {
+		return sInstance;
+	}
+
+	/**
+	 * Add a type to this table, or replace the one of the extension. The
+	 * framework's MimeTypeMap is still asked first.
+	 * 
+	 * @param extension The extension, with or without the dot.
+	 * @param mimeType
+	 */
+	public void put(String extension, String mimeType) {
 		// Convert extensions to lower case letters for easier comparison
-		extension = extension.toLowerCase();
-		
-		mMimeTypes.put(type, extension);
+		final String key = extension.startsWith(".") ? extension.substring(1) : extension;
+		mOverrides.put(key.toLowerCase(), mimeType.toLowerCase());
+		// Forget what was memoized for the old type
+		mMemo = new MimeTypeMemo();
 	}
 	
 	public String getMimeType(String filename) {
+		return getMimeType(filename, 0, filename.length());
+	}
+
+	/**
+	 * Get the MIME type of the name held in a range of characters, without
+	 * copying it.
+	 * 
+	 * @param name
+	 * @param start Start of the name in chars.
+	 * @param end End of the name in chars, exclusive.
+	 * @return The catch-all type if the type is unknown.
+	 */
+	public String getMimeType(CharSequence name, int start, int end) {
+		int dot = end - 1;
+		while (dot >= start && name.charAt(dot) != '.')
+			dot--;
+		if (dot < start) {
+			// No extension.
+			return "*/*";
+		}
+
+		final MimeTypeMemo memo = mMemo;
+		String mimetype = memo.get(name, dot + 1, end);
+		if (mimetype == MimeTypeMemo.MISS) {
+			mimetype = resolve(name, dot + 1, end);
+			memo.put(name, dot + 1, end, mimetype);
+		}
+
+		if(mimetype==null) mimetype = "*/*";
 		
-		String extension = FileUtils.getExtension(filename);
-		
+		return mimetype;
+	}
+
+	/**
+	 * Look an extension up, the first time it is seen.
+	 * 
+	 * @return null if unknown.
+	 */
+	private String resolve(CharSequence name, int start, int end) {
 		// Let's check the official map first. Webkit has a nice extension-to-MIME map.
-		// Be sure to remove the first character from the extension, which is the "." character.
-		if (extension.length() > 0) {
-			String webkitMimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.substring(1));
+		final String extension = name.subSequence(start, end).toString();
+		String webkitMimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
 		
-			if (webkitMimeType != null) {
-				// Found one. Let's take it!
-				return webkitMimeType;
-			}
+		if (webkitMimeType != null) {
+			// Found one. Let's take it!
+			return webkitMimeType;
+		}
+
+		if (!mOverrides.isEmpty()) {
+			final String override = mOverrides.get(extension.toLowerCase());
+			if (override != null)
+				return override;
 		}
 		
-		// Convert extensions to lower case letters for easier comparison
-		extension = extension.toLowerCase();
-		
-		String mimetype = mMimeTypes.get(extension);
-		
-		if(mimetype==null) mimetype = "*/*";
-		
-		return mimetype;
+		// Our table matches case insensitively, straight from the file name
+		return mMimeTypes.get(name, start, end);
 	}
 	
 	public String getMimeType(Uri uri) {
-	
-		return getMimeType(FileUtils.getFile(uri).getName());	
+		final String name = uri.getLastPathSegment();
+		return name == null ? "*/*" : getMimeType(name);
+	}
+
+	/**
+	 * Get every extension whose MIME type matches one of the patterns, to
+	 * filter files by name without a lookup per file. Types are resolved the
+	 * way {@link #getMimeType(String)} does, for the extensions of the table
+	 * plus the framework's preferred extension of each exact type.
+	 * 
+	 * @param patterns Types like application/pdf or classes like image/*.
+	 * @return Lower case extensions without the dot; null if a pattern is
+	 *         the catch-all type.
+	 */
+	public Set<String> getExtensions(String... patterns) {
+		final Set<String> extensions = new TreeSet<String>();
+		for (String pattern : patterns) {
+			if (ScanFilter.matchesMimeType(pattern, "*/*"))
+				return null;
+			if (!pattern.endsWith("/*")) {
+				final String extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(pattern);
+				if (extension != null)
+					extensions.add(extension.toLowerCase());
+			}
+		}
+
+		final int size = mMimeTypes.size();
+		for (int i = 0; i < size; i++)
+			addIfMatching(extensions, mMimeTypes.getExtension(i), patterns);
+		for (String extension : mOverrides.keySet())
+			addIfMatching(extensions, extension, patterns);
+		return extensions;
+	}
+
+	private void addIfMatching(Set<String> extensions, String extension, String[] patterns) {
+		final String mimeType = getMimeType("." + extension);
+		for (String pattern : patterns) {
+			if (ScanFilter.matchesMimeType(pattern.toLowerCase(), mimeType)) {
+				extensions.add(extension);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the MIME types of a whole listing.
+	 * 
+	 * @param files
+	 * @return MIME types in the same order as files
+	 */
+	public List<String> getMimeTypes(List<? extends File> files) {
+		final int size = files.size();
+		final List<String> mimeTypes = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			mimeTypes.add(getMimeType(files.get(i).getName()));
+		}
+		return mimeTypes;
 	}
 	
 }
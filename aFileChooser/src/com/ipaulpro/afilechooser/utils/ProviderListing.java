@@ -0,0 +1,120 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+
+import com.ipaulpro.afilechooser.ProviderDocument;
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Listing of a provider directory, copied out of its cursor in the
+ * background so the UI thread never touches the provider. Entries are in
+ * the order the provider returned them.
+ * 
+ * A listing that couldn't be queried is empty and tells why, see
+ * {@link #getError()}, so the error can be shown instead of an empty
+ * folder.
+ */
+public class ProviderListing extends AbstractList<VFile> {
+
+	/** The columns to query, named as in DocumentsContract.Document. */
+	public static final String[] PROJECTION = {
+			"document_id", "_display_name", "mime_type", "_size", "last_modified", "flags"
+	};
+	private static final int COLUMN_ID = 0;
+	private static final int COLUMN_NAME = 1;
+	private static final int COLUMN_MIME_TYPE = 2;
+	private static final int COLUMN_SIZE = 3;
+	private static final int COLUMN_LAST_MODIFIED = 4;
+	private static final int COLUMN_FLAGS = 5;
+
+	private final List<VFile> mRows;
+	private final Exception mError;
+
+	private ProviderListing(List<VFile> rows, Exception error) {
+		mRows = rows;
+		mError = error;
+	}
+
+	/**
+	 * Read every row and close the cursor. Don't call this on the UI thread.
+	 * 
+	 * @param cursor Queried with {@link #PROJECTION}.
+	 * @param dir Pseudo path of the directory.
+	 * @param authority
+	 * @param treeDocumentId The tree the directory was reached through, null
+	 *            for none.
+	 * @param foldersOnly Whether files should be left out.
+	 */
+	public static ProviderListing read(Cursor cursor, File dir, String authority, String treeDocumentId,
+			boolean foldersOnly) {
+		try {
+			final List<VFile> rows = new ArrayList<VFile>(cursor.getCount());
+			while (cursor.moveToNext()) {
+				final String id = cursor.getString(COLUMN_ID);
+				final String name = cursor.getString(COLUMN_NAME);
+				final String mimeType = cursor.getString(COLUMN_MIME_TYPE);
+				if (foldersOnly && !ProviderDocument.MIME_TYPE_DIR.equals(mimeType))
+					continue;
+				rows.add(new ProviderDocument(dir,
+						name == null ? id : name,
+						authority,
+						treeDocumentId,
+						id,
+						mimeType,
+						cursor.isNull(COLUMN_SIZE) ? 0 : cursor.getLong(COLUMN_SIZE),
+						cursor.isNull(COLUMN_LAST_MODIFIED) ? 0 : cursor.getLong(COLUMN_LAST_MODIFIED),
+						cursor.isNull(COLUMN_FLAGS) ? 0 : cursor.getInt(COLUMN_FLAGS)));
+			}
+			return new ProviderListing(rows, null);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * @param error Why the directory couldn't be listed.
+	 * @return An empty listing.
+	 */
+	public static ProviderListing failed(Exception error) {
+		return new ProviderListing(new ArrayList<VFile>(0), error);
+	}
+
+	@Override
+	public VFile get(int location) {
+		return mRows.get(location);
+	}
+
+	@Override
+	public int size() {
+		return mRows.size();
+	}
+
+	/**
+	 * @return Why the directory couldn't be listed, a SecurityException if
+	 *         the provider didn't grant access; null if it was listed.
+	 */
+	public Exception getError() {
+		return mError;
+	}
+}
@@ -0,0 +1,361 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Immutable set of predicates deciding which entries a scan keeps. Filters
+ * are composed by chaining the with methods, each returning a new filter:
+ *
+ * <pre>
+ * ScanFilter.DEFAULT.withExtensions("pdf").withSizeRange(1024 * 1024, Long.MAX_VALUE)
+ * </pre>
+ *
+ * Name predicates (hidden entries, extensions, MIME types) are checked
+ * before an entry is stat'ed; stat predicates (size, modification time)
+ * right after. Folders are only subject to the hidden toggle, so the tree
+ * stays browsable.
+ *
+ * A listing scanned with a filter's name predicates, see
+ * {@link #getNameFilter()}, can be re-filtered for any filter that
+ * {@link #narrows(ScanFilter) narrows} it, without a rescan.
+ */
+public class ScanFilter {
+
+	/** Hides hidden entries and keeps everything else. */
+	public static final ScanFilter DEFAULT = new ScanFilter();
+
+	private boolean mShowHidden;
+	/** Lower case extensions, null for any. */
+	private Set<String> mExtensions;
+	/** MIME type patterns like image/*, null for any. */
+	private Set<String> mMimeTypePatterns;
+	private MimeTypes mMimeTypes;
+	private long mMinSize = 0;
+	private long mMaxSize = Long.MAX_VALUE;
+	private long mMinModified = Long.MIN_VALUE;
+	private long mMaxModified = Long.MAX_VALUE;
+
+	private ScanFilter() {
+	}
+
+	private ScanFilter copy() {
+		final ScanFilter filter = new ScanFilter();
+		filter.mShowHidden = mShowHidden;
+		filter.mExtensions = mExtensions;
+		filter.mMimeTypePatterns = mMimeTypePatterns;
+		filter.mMimeTypes = mMimeTypes;
+		filter.mMinSize = mMinSize;
+		filter.mMaxSize = mMaxSize;
+		filter.mMinModified = mMinModified;
+		filter.mMaxModified = mMaxModified;
+		return filter;
+	}
+
+	/**
+	 * @param showHidden Whether entries starting with a dot are kept.
+	 * @return
+	 */
+	public ScanFilter withHidden(boolean showHidden) {
+		final ScanFilter filter = copy();
+		filter.mShowHidden = showHidden;
+		return filter;
+	}
+
+	/**
+	 * Only keep files with one of the extensions, compared case
+	 * insensitively.
+	 *
+	 * @param extensions Without the dot; none to keep any extension.
+	 * @return
+	 */
+	public ScanFilter withExtensions(String... extensions) {
+		return withExtensions(Arrays.asList(extensions));
+	}
+
+	/**
+	 * @see #withExtensions(String...)
+	 */
+	public ScanFilter withExtensions(Iterable<String> extensions) {
+		final Set<String> set = new TreeSet<String>();
+		for (String extension : extensions)
+			set.add(extension.toLowerCase());
+		final ScanFilter filter = copy();
+		filter.mExtensions = set.isEmpty() ? null : Collections.unmodifiableSet(set);
+		return filter;
+	}
+
+	/**
+	 * Only keep files whose MIME type, as found by name, matches one of the
+	 * patterns.
+	 *
+	 * @param mimeTypes Resolves the types.
+	 * @param patterns Types like application/pdf or classes like image/*;
+	 *            none or the catch-all type to keep any type.
+	 * @return
+	 */
+	public ScanFilter withMimeTypes(MimeTypes mimeTypes, String... patterns) {
+		final Set<String> set = new TreeSet<String>();
+		for (String pattern : patterns) {
+			if (isCatchAll(pattern)) {
+				set.clear();
+				break;
+			}
+			set.add(pattern.toLowerCase());
+		}
+		final ScanFilter filter = copy();
+		filter.mMimeTypePatterns = set.isEmpty() ? null : Collections.unmodifiableSet(set);
+		filter.mMimeTypes = set.isEmpty() ? null : mimeTypes;
+		return filter;
+	}
+
+	/**
+	 * Only keep files with a size in the range.
+	 *
+	 * @param min Inclusive, in bytes.
+	 * @param max Inclusive, in bytes.
+	 * @return
+	 */
+	public ScanFilter withSizeRange(long min, long max) {
+		final ScanFilter filter = copy();
+		filter.mMinSize = min;
+		filter.mMaxSize = max;
+		return filter;
+	}
+
+	/**
+	 * Only keep files last modified in the range.
+	 *
+	 * @param min Inclusive, in milliseconds since the epoch.
+	 * @param max Inclusive, in milliseconds since the epoch.
+	 * @return
+	 */
+	public ScanFilter withModifiedRange(long min, long max) {
+		final ScanFilter filter = copy();
+		filter.mMinModified = min;
+		filter.mMaxModified = max;
+		return filter;
+	}
+
+	/**
+	 * @return This filter without its stat predicates.
+	 */
+	public ScanFilter getNameFilter() {
+		if (!hasStatPredicates())
+			return this;
+		return withSizeRange(0, Long.MAX_VALUE).withModifiedRange(Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	private boolean hasStatPredicates() {
+		return mMinSize > 0 || mMaxSize != Long.MAX_VALUE
+				|| mMinModified != Long.MIN_VALUE || mMaxModified != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Identifies the name predicates, for caching listings scanned with
+	 * them.
+	 *
+	 * @return Empty for the name predicates of {@link #DEFAULT}.
+	 */
+	public String getNameKey() {
+		if (!mShowHidden && mExtensions == null && mMimeTypePatterns == null)
+			return "";
+		final StringBuilder key = new StringBuilder();
+		key.append(mShowHidden ? 'h' : '-');
+		if (mExtensions != null)
+			key.append('e').append(mExtensions);
+		if (mMimeTypePatterns != null)
+			key.append('m').append(mMimeTypePatterns);
+		return key.toString();
+	}
+
+	/**
+	 * Whether every entry this filter keeps is also kept by the name
+	 * predicates of another filter, so a listing scanned with those can be
+	 * re-filtered instead of rescanned.
+	 *
+	 * @param scanned
+	 * @return
+	 */
+	public boolean narrows(ScanFilter scanned) {
+		if (mShowHidden && !scanned.mShowHidden)
+			return false;
+		if (scanned.mExtensions != null
+				&& (mExtensions == null || !scanned.mExtensions.containsAll(mExtensions)))
+			return false;
+		if (scanned.mMimeTypePatterns != null && !scanned.mMimeTypePatterns.equals(mMimeTypePatterns))
+			return false;
+		return true;
+	}
+
+	/**
+	 * Name predicate of all entries, folders included. Never touches the
+	 * file system.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public boolean acceptsName(String name) {
+		return mShowHidden || !name.startsWith(FileScanner.HIDDEN_PREFIX);
+	}
+
+	/**
+	 * Name predicates of files. Never touches the file system.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public boolean acceptsFileName(String name) {
+		if (mExtensions != null && !hasExtension(name))
+			return false;
+		if (mMimeTypePatterns != null) {
+			final String mimeType = mMimeTypes.getMimeType(name);
+			boolean matched = false;
+			for (String pattern : mMimeTypePatterns) {
+				if (matchesMimeType(pattern, mimeType)) {
+					matched = true;
+					break;
+				}
+			}
+			if (!matched)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compares in place, this runs once per entry of every scan.
+	 */
+	private boolean hasExtension(String name) {
+		for (String extension : mExtensions) {
+			final int dot = name.length() - extension.length() - 1;
+			if (dot >= 0 && name.charAt(dot) == '.'
+					&& name.regionMatches(true, dot + 1, extension, 0, extension.length()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stat predicates of a file that passed the name predicates.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public boolean acceptsFile(VFile file) {
+		final long length = file.length();
+		final long lastModified = file.lastModified();
+		return length >= mMinSize && length <= mMaxSize
+				&& lastModified >= mMinModified && lastModified <= mMaxModified;
+	}
+
+	/**
+	 * All predicates.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public boolean accept(VFile file) {
+		final String name = file.getName();
+		if (!acceptsName(name))
+			return false;
+		return file.isDirectory() || (acceptsFileName(name) && acceptsFile(file));
+	}
+
+	/**
+	 * Re-filter a listing, keeping its order.
+	 *
+	 * @param files Must not be modified afterwards.
+	 * @return files itself if all entries are kept.
+	 */
+	public List<VFile> apply(List<VFile> files) {
+		final int size = files.size();
+		List<VFile> kept = null;
+		for (int i = 0; i < size; i++) {
+			final VFile file = files.get(i);
+			final boolean accepted = accept(file);
+			if (kept == null && !accepted) {
+				kept = new ArrayList<VFile>(size);
+				kept.addAll(files.subList(0, i));
+			} else if (kept != null && accepted) {
+				kept.add(file);
+			}
+		}
+		return kept == null ? files : kept;
+	}
+
+	/**
+	 * Filters are equal if they keep the same entries, so a recreated
+	 * filter doesn't cause a rescan.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof ScanFilter))
+			return false;
+		final ScanFilter other = (ScanFilter) o;
+		return mShowHidden == other.mShowHidden
+				&& (mExtensions == null ? other.mExtensions == null : mExtensions.equals(other.mExtensions))
+				&& (mMimeTypePatterns == null ? other.mMimeTypePatterns == null
+						: mMimeTypePatterns.equals(other.mMimeTypePatterns))
+				&& mMimeTypes == other.mMimeTypes
+				&& mMinSize == other.mMinSize && mMaxSize == other.mMaxSize
+				&& mMinModified == other.mMinModified && mMaxModified == other.mMaxModified;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = mShowHidden ? 1 : 0;
+		hash = 31 * hash + (mExtensions == null ? 0 : mExtensions.hashCode());
+		hash = 31 * hash + (mMimeTypePatterns == null ? 0 : mMimeTypePatterns.hashCode());
+		hash = 31 * hash + (int) (mMinSize ^ (mMinSize >>> 32));
+		hash = 31 * hash + (int) (mMaxSize ^ (mMaxSize >>> 32));
+		hash = 31 * hash + (int) (mMinModified ^ (mMinModified >>> 32));
+		hash = 31 * hash + (int) (mMaxModified ^ (mMaxModified >>> 32));
+		return hash;
+	}
+
+	private static boolean isCatchAll(String pattern) {
+		return "*/*".equals(pattern) || "*".equals(pattern);
+	}
+
+	/**
+	 * Whether a MIME type matches a pattern like image/* or image/png.
+	 *
+	 * @param pattern Lower case.
+	 * @param mimeType
+	 * @return
+	 */
+	public static boolean matchesMimeType(String pattern, String mimeType) {
+		if (isCatchAll(pattern))
+			return true;
+		if (mimeType == null || isCatchAll(mimeType))
+			return false;
+		if (pattern.endsWith("/*"))
+			return mimeType.regionMatches(true, 0, pattern, 0, pattern.length() - 1);
+		return pattern.equalsIgnoreCase(mimeType);
+	}
+}
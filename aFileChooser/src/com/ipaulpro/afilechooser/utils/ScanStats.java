@@ -0,0 +1,92 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Process-wide counters of directory scans.
+ * 
+ * The I/O time saved by a cancelled scan is estimated from the time it
+ * spent per entry before it stopped, times the entries it never stat'ed.
+ */
+public class ScanStats {
+	/** TAG for log messages. */
+	static final String TAG = "ScanStats";
+	private static final boolean DEBUG = false; // Set to true to enable logging
+
+	private static final AtomicLong sScansCompleted = new AtomicLong();
+	private static final AtomicLong sScansCanceled = new AtomicLong();
+	private static final AtomicLong sEntriesSkipped = new AtomicLong();
+	private static final AtomicLong sNanosSaved = new AtomicLong();
+
+	private ScanStats() {
+	}
+
+	static void onScanCompleted() {
+		sScansCompleted.incrementAndGet();
+	}
+
+	/**
+	 * @param entriesDone Entries looked at before the scan stopped.
+	 * @param entriesSkipped Entries left unscanned.
+	 * @param elapsedNanos Time the scan ran.
+	 */
+	static void onScanCanceled(int entriesDone, int entriesSkipped, long elapsedNanos) {
+		sScansCanceled.incrementAndGet();
+		sEntriesSkipped.addAndGet(entriesSkipped);
+
+		long saved = 0;
+		if (entriesDone > 0)
+			saved = elapsedNanos / entriesDone * entriesSkipped;
+		sNanosSaved.addAndGet(saved);
+
+		if (DEBUG) Log.d(TAG, "Scan canceled after " + entriesDone + " entries, skipped "
+				+ entriesSkipped + ", saved ~" + saved / 1000000 + " ms");
+	}
+
+	public static long getScansCompleted() {
+		return sScansCompleted.get();
+	}
+
+	public static long getScansCanceled() {
+		return sScansCanceled.get();
+	}
+
+	/**
+	 * @return Entries cancelled scans didn't have to stat.
+	 */
+	public static long getEntriesSkipped() {
+		return sEntriesSkipped.get();
+	}
+
+	/**
+	 * @return Estimated I/O time saved by cancelling scans, in milliseconds.
+	 */
+	public static long getTimeSavedMillis() {
+		return sNanosSaved.get() / 1000000;
+	}
+
+	public static void reset() {
+		sScansCompleted.set(0);
+		sScansCanceled.set(0);
+		sEntriesSkipped.set(0);
+		sNanosSaved.set(0);
+	}
+}
@@ -0,0 +1,84 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.os.Environment;
+import android.text.TextUtils;
+
+/**
+ * Finds the mounted storage volumes: the primary external storage, the
+ * volumes listed in the SECONDARY_STORAGE environment variable, and the
+ * readable directories under /storage, where SD cards and USB drives are
+ * usually mounted.
+ */
+public class StorageVolumes {
+
+	private static final String STORAGE_DIR = "/storage";
+	private static final String SECONDARY_STORAGE = "SECONDARY_STORAGE";
+
+	private StorageVolumes() {
+	}
+
+	/**
+	 * Get the mounted volumes, the primary external storage first. Volumes
+	 * reachable through several paths are only listed once.
+	 * 
+	 * @return
+	 */
+	public static List<File> getVolumes() {
+		final List<File> candidates = new ArrayList<File>();
+		candidates.add(Environment.getExternalStorageDirectory());
+
+		final String secondary = System.getenv(SECONDARY_STORAGE);
+		if (!TextUtils.isEmpty(secondary)) {
+			for (String path : secondary.split(File.pathSeparator))
+				candidates.add(new File(path));
+		}
+
+		final File[] mounts = new File(STORAGE_DIR).listFiles();
+		if (mounts != null) {
+			for (File mount : mounts)
+				candidates.add(mount);
+		}
+
+		final List<File> volumes = new ArrayList<File>();
+		final Set<String> seen = new HashSet<String>();
+		for (File candidate : candidates) {
+			if (!candidate.isDirectory() || !candidate.canRead())
+				continue;
+			// /storage/sdcard0, /sdcard and /mnt/sdcard are often the same
+			if (seen.add(getCanonicalPath(candidate)))
+				volumes.add(candidate);
+		}
+		return volumes;
+	}
+
+	private static String getCanonicalPath(File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Downsampled thumbnails kept in the app's cache dir, so folders visited
+ * before show their previews without decoding the originals again, even
+ * after the process restarted.
+ * 
+ * Thumbnails are keyed by a hash of path, size and modification time of
+ * the original file. Writes are queued and flushed in batches on a background thread.
+ * Once the cache grows beyond its byte budget the least recently used
+ * thumbnails are deleted, going by the modification time of the cache
+ * files, which reads refresh.
+ */
+public class ThumbnailDiskCache {
+	/** TAG for log messages. */
+	static final String TAG = "ThumbnailDiskCache";
+	private static final boolean DEBUG = false; // Set to true to enable logging
+
+	private static final String DIR_NAME = "afilechooser-thumbnails";
+	private static final String SUFFIX = ".jpg";
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+	private static final int JPEG_QUALITY = 85;
+
+	/** Flushes one batch of thumbnails at a time, at low priority. */
+	private static final ThreadPoolExecutor sWriter = new ThreadPoolExecutor(1, 1, 30,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "ThumbnailDiskCache");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		sWriter.allowCoreThreadTimeOut(true);
+	}
+
+	private static ThumbnailDiskCache sInstance;
+
+	private final File mDir;
+	private volatile long mMaxBytes = DEFAULT_MAX_BYTES;
+
+	/** Thumbnails waiting to be written, guarded by itself. */
+	private final Map<File, Bitmap> mPending = new LinkedHashMap<File, Bitmap>();
+	private boolean mFlushScheduled;
+
+	/** Bytes on disk, -1 until counted. Only touched by the writer. */
+	private long mBytes = -1;
+
+	private ThumbnailDiskCache(File dir) {
+		mDir = dir;
+	}
+
+	/**
+	 * @param context
+	 * @return The thumbnail cache in the app's cache dir.
+	 */
+	public static synchronized ThumbnailDiskCache getInstance(Context context) {
+		if (sInstance == null)
+			sInstance = new ThumbnailDiskCache(new File(context.getCacheDir(), DIR_NAME));
+		return sInstance;
+	}
+
+	/**
+	 * Set the number of bytes the cache may use on disk, applied on the next
+	 * write.
+	 */
+	public void setMaxBytes(long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Name the thumbnail after a SHA-1 of the original's path, size and
+	 * modification time, so distinct originals never share a cache file.
+	 */
+	private File getFile(File original) {
+		final String key = original.getAbsolutePath() + '\0' + original.length() + '\0'
+				+ original.lastModified();
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+
+		final StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+		for (byte b : digest) {
+			name.append(HEX_DIGITS[(b >> 4) & 0xf]);
+			name.append(HEX_DIGITS[b & 0xf]);
+		}
+		return new File(mDir, name.append(SUFFIX).toString());
+	}
+
+	/**
+	 * Read the thumbnail of a file, if cached for its current size and
+	 * modification time. Don't call this on the UI thread.
+	 * 
+	 * @param original
+	 * @return null if not cached.
+	 */
+	public Bitmap get(File original) {
+		final File file = getFile(original);
+		synchronized (mPending) {
+			final Bitmap pending = mPending.get(file);
+			if (pending != null)
+				return pending;
+		}
+		if (!file.exists())
+			return null;
+
+		final Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+		if (bitmap != null)
+			file.setLastModified(System.currentTimeMillis());
+		return bitmap;
+	}
+
+	/**
+	 * Store the thumbnail of a file. Returns right away, the thumbnail is
+	 * written with the next batch.
+	 * 
+	 * @param original
+	 * @param thumbnail Must not be recycled.
+	 */
+	public void put(File original, Bitmap thumbnail) {
+		final File file = getFile(original);
+		synchronized (mPending) {
+			mPending.put(file, thumbnail);
+			if (mFlushScheduled)
+				return;
+			mFlushScheduled = true;
+		}
+		sWriter.execute(mFlush);
+	}
+
+	private final Runnable mFlush = new Runnable() {
+		@Override
+		public void run() {
+			final Map.Entry<?, ?>[] batch;
+			synchronized (mPending) {
+				batch = mPending.entrySet().toArray(new Map.Entry<?, ?>[mPending.size()]);
+				mFlushScheduled = false;
+			}
+
+			if (!mDir.isDirectory() && !mDir.mkdirs()) {
+				if (DEBUG) Log.e(TAG, "Can't create " + mDir);
+				clearPending(batch);
+				return;
+			}
+			if (mBytes < 0)
+				mBytes = countBytes();
+
+			for (Map.Entry<?, ?> entry : batch) {
+				final File file = (File) entry.getKey();
+				try {
+					// A rewritten thumbnail replaces the bytes of the old one
+					final long previous = file.length();
+					write(file, (Bitmap) entry.getValue());
+					mBytes += file.length() - previous;
+				} catch (IOException e) {
+					if (DEBUG) Log.e(TAG, "write", e);
+				}
+			}
+			clearPending(batch);
+
+			if (mBytes > mMaxBytes)
+				trim();
+		}
+	};
+
+	private void clearPending(Map.Entry<?, ?>[] batch) {
+		synchronized (mPending) {
+			for (Map.Entry<?, ?> entry : batch) {
+				// Unless it was replaced in the meantime
+				if (mPending.get(entry.getKey()) == entry.getValue())
+					mPending.remove(entry.getKey());
+			}
+		}
+	}
+
+	private void write(File file, Bitmap bitmap) throws IOException {
+		final File temp = new File(mDir, file.getName() + ".tmp");
+		final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+		try {
+			bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+		} finally {
+			out.close();
+		}
+
+		// Readers only ever see complete thumbnails
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Can't rename " + temp);
+		}
+	}
+
+	private long countBytes() {
+		long bytes = 0;
+		final File[] files = mDir.listFiles();
+		if (files != null) {
+			for (File file : files)
+				bytes += file.length();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Delete the least recently used thumbnails until the cache is down to
+	 * three quarters of its budget, so it isn't trimmed on every batch.
+	 */
+	private void trim() {
+		final File[] thumbnails = mDir.listFiles();
+		if (thumbnails == null)
+			return;
+
+		final long[] modified = new long[thumbnails.length];
+		final Integer[] order = new Integer[thumbnails.length];
+		long bytes = 0;
+		for (int i = 0; i < thumbnails.length; i++) {
+			modified[i] = thumbnails[i].lastModified();
+			order[i] = i;
+			bytes += thumbnails[i].length();
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				final long m1 = modified[i1];
+				final long m2 = modified[i2];
+				return m1 < m2 ? -1 : (m1 > m2 ? 1 : 0);
+			}
+		});
+
+		final long target = mMaxBytes / 4 * 3;
+		for (int i = 0; i < thumbnails.length && bytes > target; i++) {
+			final File file = thumbnails[order[i]];
+			final long length = file.length();
+			if (file.delete())
+				bytes -= length;
+		}
+		mBytes = bytes;
+	}
+}
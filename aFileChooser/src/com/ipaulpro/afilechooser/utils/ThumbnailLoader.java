@@ -0,0 +1,311 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.ipaulpro.afilechooser.R;
+
+/**
+ * Loads thumbnails of images and videos off the UI thread.
+ * 
+ * Bitmaps are kept in a memory cache bounded by their byte size and keyed
+ * by path and modification time, so a changed file gets a new thumbnail.
+ * Views asking for the same file share a single request, and a request is
+ * dropped once no view wants it anymore, for instance because its row was
+ * recycled for another file while scrolling.
+ * 
+ * Thumbnails come from the {@link ThumbnailDiskCache} if possible, then
+ * from the MediaStore. Images the MediaStore doesn't know are decoded
+ * downsampled. Either way the result is scaled to the row icon size and
+ * written back to the disk cache.
+ * 
+ * All public methods must be called on the UI thread.
+ */
+public class ThumbnailLoader {
+	private static final String TAG = "ThumbnailLoader";
+	private static final boolean DEBUG = false; // Set to true to enable logging
+
+	public static final int DEFAULT_WORKERS = 2;
+
+	/** Share of the heap the memory cache may use. */
+	private static final int MEMORY_CACHE_DIVIDER = 8;
+
+	/** Remembered files without a thumbnail. */
+	private static final int MAX_MISSES = 512;
+
+	private static ThumbnailLoader sInstance;
+
+	private final Context mContext;
+	private final ThumbnailDiskCache mDiskCache;
+	/** Length of the shorter side of stored thumbnails, in pixels. */
+	private final int mSize;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final ThreadPoolExecutor mExecutor;
+
+	private final LruCache<String, Bitmap> mCache;
+	private final LruCache<String, Boolean> mMisses = new LruCache<String, Boolean>(MAX_MISSES);
+
+	/** Requests not completed yet, by key. */
+	private final Map<String, Request> mRequests = new HashMap<String, Request>();
+	/** The key each view currently waits for. */
+	private final Map<ImageView, String> mTargets = new WeakHashMap<ImageView, String>();
+
+	/**
+	 * @return The loader shared by the FileListAdapters of the process.
+	 */
+	public static synchronized ThumbnailLoader getInstance(Context context) {
+		if (sInstance == null)
+			sInstance = new ThumbnailLoader(context, DEFAULT_WORKERS);
+		return sInstance;
+	}
+
+	/**
+	 * @param workers Number of thumbnails fetched in parallel, at least 1.
+	 */
+	public ThumbnailLoader(Context context, int workers) {
+		checkWorkerCount(workers);
+		mContext = context.getApplicationContext();
+		mDiskCache = ThumbnailDiskCache.getInstance(mContext);
+		mSize = mContext.getResources().getDimensionPixelSize(R.dimen.list_item_icon_size);
+		mExecutor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread thread = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "ThumbnailLoader");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		mExecutor.allowCoreThreadTimeOut(true);
+
+		final int maxBytes = (int) Math.min(Integer.MAX_VALUE,
+				Runtime.getRuntime().maxMemory() / MEMORY_CACHE_DIVIDER);
+		mCache = new LruCache<String, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				return value.getByteCount();
+			}
+		};
+	}
+
+	/**
+	 * Change the number of thumbnails fetched in parallel.
+	 * 
+	 * @param workers At least 1.
+	 */
+	public void setWorkerCount(int workers) {
+		checkWorkerCount(workers);
+		if (workers > mExecutor.getMaximumPoolSize()) {
+			mExecutor.setMaximumPoolSize(workers);
+			mExecutor.setCorePoolSize(workers);
+		} else {
+			mExecutor.setCorePoolSize(workers);
+			mExecutor.setMaximumPoolSize(workers);
+		}
+	}
+
+	private static void checkWorkerCount(int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("workers must be at least 1: " + workers);
+	}
+
+	/**
+	 * Whether a thumbnail may exist for a file of the given MIME type.
+	 */
+	public static boolean isSupported(String mimeType) {
+		return mimeType != null && (mimeType.startsWith("image/") || mimeType.startsWith("video/"));
+	}
+
+	/**
+	 * Show the thumbnail of a file in a view, as soon as it is available.
+	 * The view keeps its current image until then, and if there is no
+	 * thumbnail.
+	 * 
+	 * @param file A snapshot of an image or video.
+	 * @param view Any earlier request for this view is cancelled.
+	 * @return Whether the thumbnail was set right away.
+	 */
+	public boolean load(File file, ImageView view) {
+		final String key = getKey(file);
+		final String previous = mTargets.get(view);
+		if (key.equals(previous)) {
+			// Still waiting for the same thumbnail
+			return false;
+		}
+		cancel(view);
+
+		final Bitmap cached = mCache.get(key);
+		if (cached != null) {
+			view.setImageBitmap(cached);
+			return true;
+		}
+		if (mMisses.get(key) != null)
+			return false;
+
+		mTargets.put(view, key);
+		Request request = mRequests.get(key);
+		if (request == null) {
+			request = new Request(key, file);
+			mRequests.put(key, request);
+			mExecutor.execute(request);
+		}
+		request.mWaiting++;
+		return false;
+	}
+
+	/**
+	 * Forget the pending request of a view, if any. Call this when binding a
+	 * view to a file without thumbnail.
+	 */
+	public void cancel(ImageView view) {
+		final String key = mTargets.remove(view);
+		if (key == null)
+			return;
+
+		final Request request = mRequests.get(key);
+		if (request != null && --request.mWaiting == 0) {
+			// Nobody wants it anymore, drop it if it didn't start yet
+			if (mExecutor.remove(request))
+				mRequests.remove(key);
+		}
+	}
+
+	/**
+	 * Forget all thumbnails held in memory.
+	 */
+	public void clear() {
+		mCache.evictAll();
+		mMisses.evictAll();
+	}
+
+	private static String getKey(File file) {
+		return file.getAbsolutePath() + ':' + file.lastModified();
+	}
+
+	/**
+	 * Back on the UI thread.
+	 */
+	private void onLoaded(Request request, Bitmap bitmap) {
+		mRequests.remove(request.mKey);
+		if (bitmap == null) {
+			mMisses.put(request.mKey, Boolean.TRUE);
+		} else {
+			mCache.put(request.mKey, bitmap);
+		}
+
+		final Iterator<Map.Entry<ImageView, String>> targets = mTargets.entrySet().iterator();
+		while (targets.hasNext()) {
+			final Map.Entry<ImageView, String> target = targets.next();
+			if (request.mKey.equals(target.getValue())) {
+				if (bitmap != null)
+					target.getKey().setImageBitmap(bitmap);
+				targets.remove();
+			}
+		}
+	}
+
+	/**
+	 * Runs on a worker thread.
+	 */
+	private Bitmap fetch(File file) {
+		Bitmap bitmap = mDiskCache.get(file);
+		if (bitmap != null)
+			return bitmap;
+
+		bitmap = FileUtils.getThumbnail(mContext, file);
+		if (bitmap == null && MimeTypes.getInstance(mContext).getMimeType(file.getName()).startsWith("image/"))
+			bitmap = FileUtils.decodeSampledBitmap(file, mSize);
+		if (bitmap == null)
+			return null;
+
+		bitmap = scale(bitmap);
+		mDiskCache.put(file, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * @return The bitmap scaled so its shorter side is mSize, unless it is
+	 *         small already.
+	 */
+	private Bitmap scale(Bitmap bitmap) {
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		final int shorter = Math.min(width, height);
+		if (shorter <= mSize)
+			return bitmap;
+
+		final Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width * mSize / shorter,
+				height * mSize / shorter, true);
+		if (scaled != bitmap)
+			bitmap.recycle();
+		return scaled;
+	}
+
+	private class Request implements Runnable {
+		final String mKey;
+		private final File mFile;
+		/** Number of views waiting, only touched on the UI thread. */
+		int mWaiting;
+
+		Request(String key, File file) {
+			mKey = key;
+			mFile = file;
+		}
+
+		@Override
+		public void run() {
+			Bitmap bitmap = null;
+			try {
+				bitmap = fetch(mFile);
+			} catch (RuntimeException e) {
+				if (DEBUG) Log.e(TAG, "Thumbnail of " + mFile, e);
+			}
+
+			final Bitmap result = bitmap;
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					onLoaded(Request.this, result);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import android.support.v4.util.LruCache;
+
+import com.ipaulpro.afilechooser.ArchiveEntry;
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Directory tree of a zip or jar archive.
+ * 
+ * The central directory is read once, through a memory mapping of just
+ * that region, and turned into a sorted listing per inner directory.
+ * Browsing any level afterwards doesn't touch the archive again. Indexes
+ * are cached per archive and rebuilt when its size or modification time
+ * changes.
+ * 
+ * Zip64 archives are not supported.
+ */
+public class ZipIndex {
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int CEN_SIGNATURE = 0x02014b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int CEN_SIZE = 46;
+	private static final int MAX_COMMENT_SIZE = 0xffff;
+	private static final int FLAG_UTF8 = 0x800;
+
+	/** Indexed archives kept in memory. */
+	private static final int MAX_ARCHIVES = 4;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final LruCache<String, ZipIndex> sCache = new LruCache<String, ZipIndex>(MAX_ARCHIVES);
+
+	private final File mArchive;
+	private final long mLength;
+	private final long mLastModified;
+	/** Listing of each inner directory, by path without slashes around it. */
+	private final Map<String, List<VFile>> mDirectories;
+
+	private ZipIndex(File archive, long length, long lastModified, Map<String, List<VFile>> directories) {
+		mArchive = archive;
+		mLength = length;
+		mLastModified = lastModified;
+		mDirectories = directories;
+	}
+
+	/**
+	 * @return Whether the name is one of a browsable archive.
+	 */
+	public static boolean isArchive(String name) {
+		final int length = name.length();
+		return name.regionMatches(true, length - 4, ".zip", 0, 4)
+				|| name.regionMatches(true, length - 4, ".jar", 0, 4);
+	}
+
+	/**
+	 * Get the index of an archive, reading its central directory unless it
+	 * is cached. Don't call this on the UI thread.
+	 * 
+	 * @param archive
+	 * @return
+	 * @throws IOException If the archive can't be read or isn't a zip file.
+	 */
+	public static synchronized ZipIndex get(File archive) throws IOException {
+		final String path = archive.getAbsolutePath();
+		final long length = archive.length();
+		final long lastModified = archive.lastModified();
+		ZipIndex index = sCache.get(path);
+		if (index != null && index.mLength == length && index.mLastModified == lastModified)
+			return index;
+
+		index = new ZipIndex(archive, length, lastModified, read(archive));
+		sCache.put(path, index);
+		return index;
+	}
+
+	public File getArchive() {
+		return mArchive;
+	}
+
+	/**
+	 * Get the entries of a directory in the archive, sorted like listings of
+	 * physical directories.
+	 * 
+	 * @param path Inner path, "" for the root.
+	 * @return null if the archive holds no such directory.
+	 */
+	public List<VFile> list(String path) {
+		return mDirectories.get(trim(path));
+	}
+
+	/**
+	 * Copy a single entry out of the archive. Only that entry is read and
+	 * inflated. Don't call this on the UI thread.
+	 * 
+	 * @param entry A file entry of this archive.
+	 * @param dest
+	 * @throws IOException
+	 */
+	public void extract(ArchiveEntry entry, File dest) throws IOException {
+		final ZipFile zip = new ZipFile(mArchive);
+		try {
+			ZipEntry zipEntry = zip.getEntry(entry.getEntryName());
+			if (zipEntry == null)
+				zipEntry = zip.getEntry("/" + entry.getEntryName());
+			if (zipEntry == null)
+				throw new IOException("No entry " + entry.getEntryName() + " in " + mArchive);
+
+			final InputStream in = zip.getInputStream(zipEntry);
+			try {
+				final OutputStream out = new BufferedOutputStream(new FileOutputStream(dest));
+				try {
+					final byte[] buffer = new byte[8192];
+					int count;
+					while ((count = in.read(buffer)) != -1)
+						out.write(buffer, 0, count);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	private static String trim(String path) {
+		int start = 0;
+		int end = path.length();
+		while (start < end && path.charAt(start) == '/')
+			start++;
+		while (end > start && path.charAt(end - 1) == '/')
+			end--;
+		return path.substring(start, end);
+	}
+
+	/**
+	 * Whether a segment of the path is "..", which would point outside the
+	 * archive. Names merely containing two dots, like "v1..2", are fine.
+	 */
+	static boolean hasParentSegment(String path) {
+		int start = 0;
+		while (start <= path.length()) {
+			int end = path.indexOf('/', start);
+			if (end < 0)
+				end = path.length();
+			if (end - start == 2 && path.startsWith("..", start))
+				return true;
+			start = end + 1;
+		}
+		return false;
+	}
+
+	/**
+	 * An entry while the tree is built.
+	 */
+	private static class Node {
+		final boolean directory;
+		long length;
+		long lastModified;
+		/** Children by name, directories only. */
+		Map<String, Node> children;
+
+		Node(boolean directory) {
+			this.directory = directory;
+			if (directory)
+				children = new LinkedHashMap<String, Node>();
+		}
+
+		boolean hasChildDirectories() {
+			for (Map.Entry<String, Node> child : children.entrySet()) {
+				if (child.getValue().directory && !child.getKey().startsWith(FileScanner.HIDDEN_PREFIX))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private static Map<String, List<VFile>> read(File archive) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(archive, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			final long size = channel.size();
+
+			// The end of central directory record is followed by a comment of up to 64K
+			final int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT_SIZE);
+			final ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+			while (tail.hasRemaining()) {
+				if (channel.read(tail, size - tailSize + tail.position()) < 0)
+					throw new IOException("Truncated " + archive);
+			}
+
+			int eocd = tailSize - EOCD_SIZE;
+			while (eocd >= 0 && tail.getInt(eocd) != EOCD_SIGNATURE)
+				eocd--;
+			if (eocd < 0)
+				throw new IOException("Not a zip archive: " + archive);
+
+			final int count = tail.getShort(eocd + 10) & 0xffff;
+			final long directorySize = tail.getInt(eocd + 12) & 0xffffffffL;
+			final long directoryOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+			if (count == 0xffff || directoryOffset == 0xffffffffL)
+				throw new IOException("Zip64 archives are not supported: " + archive);
+			if (directoryOffset + directorySize > size)
+				throw new IOException("Corrupt central directory: " + archive);
+
+			final MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY,
+					directoryOffset, directorySize);
+			directory.order(ByteOrder.LITTLE_ENDIAN);
+			return buildTree(archive, directory, count);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static Map<String, List<VFile>> buildTree(File archive, ByteBuffer directory, int count)
+			throws IOException {
+		final Map<String, Node> directories = new HashMap<String, Node>();
+		directories.put("", new Node(true));
+
+		final GregorianCalendar calendar = new GregorianCalendar();
+		byte[] nameBytes = new byte[256];
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			if (position + CEN_SIZE > directory.limit() || directory.getInt(position) != CEN_SIGNATURE)
+				throw new IOException("Corrupt central directory: " + archive);
+
+			final int flags = directory.getShort(position + 8) & 0xffff;
+			final int dosTime = directory.getInt(position + 12);
+			final long length = directory.getInt(position + 24) & 0xffffffffL;
+			final int nameLength = directory.getShort(position + 28) & 0xffff;
+			final int extraLength = directory.getShort(position + 30) & 0xffff;
+			final int commentLength = directory.getShort(position + 32) & 0xffff;
+
+			if (nameLength > nameBytes.length)
+				nameBytes = new byte[nameLength];
+			directory.position(position + CEN_SIZE);
+			directory.get(nameBytes, 0, nameLength);
+			final String name = new String(nameBytes, 0, nameLength,
+					(flags & FLAG_UTF8) != 0 ? UTF_8 : ISO_8859_1);
+			position += CEN_SIZE + nameLength + extraLength + commentLength;
+
+			final boolean isDirectory = name.endsWith("/");
+			final String path = trim(name);
+			if (path.length() == 0 || hasParentSegment(path))
+				continue;
+
+			final Node node = isDirectory ? getDirectory(directories, path) : new Node(false);
+			node.length = length;
+			node.lastModified = toMillis(calendar, dosTime);
+			if (!isDirectory) {
+				final int slash = path.lastIndexOf('/');
+				final Node parent = getDirectory(directories, slash < 0 ? "" : path.substring(0, slash));
+				parent.children.put(path.substring(slash + 1), node);
+			}
+		}
+
+		final long lastModified = archive.lastModified();
+		final Map<String, List<VFile>> listings = new HashMap<String, List<VFile>>(directories.size() * 2);
+		final FileSorter sorter = new FileSorter(FileSorter.SORT_NAME);
+		for (Map.Entry<String, Node> entry : directories.entrySet()) {
+			final String path = entry.getKey();
+			final File dir = path.length() == 0 ? archive : new File(archive, path);
+			final List<VFile> dirs = new ArrayList<VFile>();
+			final List<VFile> files = new ArrayList<VFile>();
+
+			for (Map.Entry<String, Node> child : entry.getValue().children.entrySet()) {
+				final String name = child.getKey();
+				if (name.startsWith(FileScanner.HIDDEN_PREFIX))
+					continue;
+				final Node node = child.getValue();
+				if (node.lastModified == 0)
+					// Implied by the names of the files in it
+					node.lastModified = lastModified;
+				final VFile file = new ArchiveEntry(archive, dir, name,
+						path.length() == 0 ? name : path + '/' + name, node.directory, node.length,
+						node.lastModified, node.directory && node.hasChildDirectories());
+				(node.directory ? dirs : files).add(file);
+			}
+
+			sorter.sort(dirs);
+			sorter.sort(files);
+			dirs.addAll(files);
+			listings.put(path, Collections.unmodifiableList(dirs));
+		}
+		return listings;
+	}
+
+	/**
+	 * Get the node of a directory, creating it and its parents as needed,
+	 * since archives often only hold entries for files.
+	 */
+	private static Node getDirectory(Map<String, Node> directories, String path) {
+		Node node = directories.get(path);
+		if (node != null)
+			return node;
+
+		node = new Node(true);
+		directories.put(path, node);
+		final int slash = path.lastIndexOf('/');
+		final Node parent = getDirectory(directories, slash < 0 ? "" : path.substring(0, slash));
+		parent.children.put(path.substring(slash + 1), node);
+		return node;
+	}
+
+	private static long toMillis(GregorianCalendar calendar, int dosTime) {
+		final int date = dosTime >>> 16;
+		final int time = dosTime & 0xffff;
+		calendar.clear();
+		calendar.set(((date >> 9) & 0x7f) + 1980, ((date >> 5) & 0xf) - 1, date & 0x1f,
+				(time >> 11) & 0x1f, (time >> 5) & 0x3f, (time & 0x1f) * 2);
+		return calendar.getTimeInMillis();
+	}
+}
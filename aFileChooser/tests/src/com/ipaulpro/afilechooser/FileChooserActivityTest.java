@@ -0,0 +1,127 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.content.Intent;
+import android.test.ActivityInstrumentationTestCase2;
+import android.view.KeyEvent;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+
+/**
+ * Navigates a small tree and checks which listing each level shows.
+ */
+public class FileChooserActivityTest extends ActivityInstrumentationTestCase2<FileChooserActivity> {
+
+	private static final long TIMEOUT = 5000;
+
+	private File mRoot;
+
+	public FileChooserActivityTest() {
+		super(FileChooserActivity.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mRoot = new File(getInstrumentation().getTargetContext().getCacheDir(), "navigation");
+		delete(mRoot);
+		createFile(new File(mRoot, "child"), "inner.txt");
+		createFile(mRoot, "outer.txt");
+
+		final Intent intent = new Intent(FileChooserActivity.ACTION_FILE_BROWSER);
+		intent.putExtra(FileChooserActivity.EXTRA_BASE_PATH, mRoot.getAbsolutePath());
+		setActivityIntent(intent);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(mRoot);
+		super.tearDown();
+	}
+
+	/**
+	 * Going down a level and back shows each level's own listing, not the
+	 * one retained for the other.
+	 */
+	public void testNavigateDownAndBack() throws Throwable {
+		getActivity();
+		assertListing("child", "outer.txt");
+
+		runTestOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				final ListView listView = getCurrentFragment().getListView();
+				listView.performItemClick(listView.getChildAt(0), 0, listView.getItemIdAtPosition(0));
+			}
+		});
+		assertListing("inner.txt");
+
+		getInstrumentation().sendKeyDownUpSync(KeyEvent.KEYCODE_BACK);
+		assertListing("child", "outer.txt");
+	}
+
+	private FileListFragment getCurrentFragment() {
+		return (FileListFragment) getActivity().getSupportFragmentManager()
+				.findFragmentById(R.id.explorer_fragment);
+	}
+
+	/**
+	 * Wait for the current fragment to list exactly these names.
+	 */
+	private void assertListing(String... names) throws InterruptedException {
+		final List<String> expected = Arrays.asList(names);
+		final List<String> listed = new ArrayList<String>();
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (true) {
+			getInstrumentation().waitForIdleSync();
+			listed.clear();
+			getInstrumentation().runOnMainSync(new Runnable() {
+				@Override
+				public void run() {
+					final ListAdapter adapter = getCurrentFragment().getListAdapter();
+					for (int i = 0; adapter != null && i < adapter.getCount(); i++)
+						listed.add(((File) adapter.getItem(i)).getName());
+				}
+			});
+			if (listed.equals(expected) || System.currentTimeMillis() > deadline)
+				break;
+			Thread.sleep(50);
+		}
+		assertEquals(expected, listed);
+	}
+
+	private static void createFile(File dir, String name) throws IOException {
+		assertTrue(dir.isDirectory() || dir.mkdirs());
+		assertTrue(new File(dir, name).createNewFile());
+	}
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+}
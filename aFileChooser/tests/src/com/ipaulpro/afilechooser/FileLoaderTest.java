@@ -0,0 +1,102 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+import com.ipaulpro.afilechooser.utils.FileSorter;
+import com.ipaulpro.afilechooser.utils.ListingCache;
+import com.ipaulpro.afilechooser.utils.ListingPrefetcher;
+import com.ipaulpro.afilechooser.utils.MimeTypes;
+import com.ipaulpro.afilechooser.utils.ScanFilter;
+
+/**
+ * Checks that listings prefetched for a directory are what FileLoader
+ * serves, whatever filter is active.
+ */
+public class FileLoaderTest extends AndroidTestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private File mDir;
+	private ScanFilter mImages;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDir = new File(getContext().getCacheDir(), "prefetched-" + System.nanoTime());
+		assertTrue(mDir.mkdirs());
+		for (String name : new String[] { "a.png", "b.txt", "c.JPG", ".hidden.png" })
+			assertTrue(new File(mDir, name).createNewFile());
+		mImages = ScanFilter.DEFAULT.withMimeTypes(MimeTypes.getInstance(getContext()), "image/*");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : mDir.listFiles())
+			file.delete();
+		mDir.delete();
+		super.tearDown();
+	}
+
+	public void testPrefetchedWithMimeFilter() throws Exception {
+		final List<VFile> prefetched = prefetch(mImages);
+		assertEquals(2, prefetched.size());
+
+		final List<VFile> loaded = load(mImages);
+		assertSame(prefetched.get(0), loaded.get(0));
+		assertSame(prefetched.get(1), loaded.get(1));
+	}
+
+	public void testPrefetchedWithDefaultFilter() throws Exception {
+		final List<VFile> prefetched = prefetch(ScanFilter.DEFAULT);
+		assertEquals(3, prefetched.size());
+
+		// Re-filtered from the default listing, not rescanned
+		final List<VFile> loaded = load(mImages);
+		assertEquals(2, loaded.size());
+		assertSame(prefetched.get(0), loaded.get(0));
+		assertSame(prefetched.get(2), loaded.get(1));
+	}
+
+	/**
+	 * Prefetch mDir and wait for its listing to be cached.
+	 */
+	private List<VFile> prefetch(ScanFilter filter) throws InterruptedException {
+		ListingPrefetcher.prefetch(Collections.singletonList(new VFile(mDir.getAbsolutePath())),
+				false, FileSorter.SORT_NAME, filter);
+		final String nameKey = filter.getNameFilter().getNameKey();
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		List<VFile> files;
+		while ((files = ListingCache.get(mDir.getAbsolutePath(), false, FileSorter.SORT_NAME, nameKey,
+				mDir.lastModified())) == null) {
+			assertTrue("not prefetched", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		return files;
+	}
+
+	private List<VFile> load(ScanFilter filter) {
+		final FileLoader loader = new FileLoader(getContext(), mDir.getAbsolutePath(), false);
+		loader.setFilter(filter);
+		return loader.loadInBackground();
+	}
+}
@@ -0,0 +1,106 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Temporary directory trees for the benchmarks.
+ * 
+ * Directories are filled breadth first with empty files named like
+ * "Entry 12.txt", every {@link #FOLDER_INTERVAL}th entry being a folder
+ * that is filled in turn, until the tree holds the requested number of
+ * entries.
+ */
+final class BenchmarkTree {
+
+	/** One folder per this many entries. */
+	static final int FOLDER_INTERVAL = 100;
+
+	private BenchmarkTree() {
+	}
+
+	/**
+	 * @param prefix Prefix of the temporary root's name.
+	 * @param entries Entries in the whole tree, the root not included.
+	 * @param perDirectory Entries per directory; at least entries for a
+	 *            single flat directory.
+	 * @return The root of the tree.
+	 * @throws IOException
+	 */
+	static File create(String prefix, int entries, int perDirectory) throws IOException {
+		final File root = File.createTempFile(prefix, "");
+		if (!root.delete() || !root.mkdir())
+			throw new IOException("Can't create " + root);
+
+		final LinkedList<File> pending = new LinkedList<File>();
+		pending.add(root);
+		int created = 0;
+		while (created < entries && !pending.isEmpty()) {
+			final File dir = pending.removeFirst();
+			for (int i = 0; i < perDirectory && created < entries; i++, created++) {
+				final boolean folder = i % FOLDER_INTERVAL == 0;
+				final File entry = new File(dir, "Entry " + i + (folder ? "" : ".txt"));
+				if (!(folder ? entry.mkdir() : entry.createNewFile()))
+					throw new IOException("Can't create " + entry);
+				if (folder)
+					pending.add(entry);
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * @param root
+	 * @return The root and every directory below it, parents first.
+	 */
+	static List<File> directories(File root) {
+		final List<File> dirs = new ArrayList<File>();
+		dirs.add(root);
+		for (int i = 0; i < dirs.size(); i++) {
+			final File[] entries = dirs.get(i).listFiles();
+			if (entries == null)
+				continue;
+			for (File entry : entries) {
+				if (entry.isDirectory())
+					dirs.add(entry);
+			}
+		}
+		return dirs;
+	}
+
+	/**
+	 * Delete a tree, deepest directories first.
+	 * 
+	 * @param root
+	 */
+	static void delete(File root) {
+		final List<File> dirs = directories(root);
+		for (int i = dirs.size() - 1; i >= 0; i--) {
+			final File[] entries = dirs.get(i).listFiles();
+			if (entries != null) {
+				for (File entry : entries)
+					entry.delete();
+			}
+			dirs.get(i).delete();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Plain JVM benchmark of opening every directory of a large tree without
+ * and with a {@link DirectoryIndex} listing, as after a process restart.
+ * 
+ * Run it like {@link ScanBenchmark}:
+ * 
+ * <pre>
+ * java -cp classes:libs/android-support-v4.jar:tests-classes \
+ *     com.ipaulpro.afilechooser.utils.DirectoryIndexBenchmark [entries] [rounds]
+ * </pre>
+ * 
+ * "Cold" is a full {@link FileScanner} scan of each directory, what opening
+ * it costs when neither the in-memory cache nor the index holds it. The
+ * entries were just created, so the kernel's caches are warm either way;
+ * on a device after a reboot the scans are slower still, while each
+ * indexed listing is a single sequential read.
+ */
+public class DirectoryIndexBenchmark {
+
+	/** One directory per 100 entries, the index keeps up to 1024 listings. */
+	private static final int DEFAULT_ENTRIES = 80000;
+	private static final int DEFAULT_ROUNDS = 5;
+	/** Entries per directory of the tree. */
+	private static final int PER_DIRECTORY = 1000;
+	private static final long WRITE_TIMEOUT = 60000;
+
+	public static void main(String[] args) throws Exception {
+		final int entries = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRIES;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+		final File root = BenchmarkTree.create("DirectoryIndexBenchmark", entries, PER_DIRECTORY);
+		final File indexDir = new File(root.getPath() + ".index");
+		try {
+			final List<File> dirs = BenchmarkTree.directories(root);
+			final int count = dirs.size();
+			final long[] lastModified = new long[count];
+			for (int i = 0; i < count; i++)
+				lastModified[i] = dirs.get(i).lastModified();
+			System.out.println(entries + " entries in " + count + " directories");
+
+			final DirectoryIndex index = new DirectoryIndex(indexDir);
+			final List<List<VFile>> scanned = new ArrayList<List<VFile>>(count);
+			long cold = Long.MAX_VALUE;
+			for (int round = 0; round < rounds; round++) {
+				scanned.clear();
+				final long start = System.nanoTime();
+				for (File dir : dirs)
+					scanned.add(new FileScanner(dir, false).scan());
+				cold = Math.min(cold, System.nanoTime() - start);
+			}
+
+			for (int i = 0; i < count; i++)
+				index.write(dirs.get(i), false, FileSorter.SORT_NAME, lastModified[i], scanned.get(i));
+			final long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+			for (int i = 0; i < count; i++) {
+				while (index.read(dirs.get(i), false, FileSorter.SORT_NAME, lastModified[i]) == null) {
+					if (System.currentTimeMillis() > deadline)
+						throw new AssertionError("Listing was not indexed: " + dirs.get(i));
+					Thread.sleep(10);
+				}
+			}
+
+			long indexed = Long.MAX_VALUE;
+			for (int round = 0; round < rounds; round++) {
+				final long start = System.nanoTime();
+				for (int i = 0; i < count; i++) {
+					final List<VFile> read = index.read(dirs.get(i), false, FileSorter.SORT_NAME,
+							lastModified[i]);
+					if (read.size() != scanned.get(i).size())
+						throw new AssertionError(read.size() + " != " + scanned.get(i).size());
+				}
+				indexed = Math.min(indexed, System.nanoTime() - start);
+			}
+
+			long size = 0;
+			for (File listing : indexDir.listFiles())
+				size += listing.length();
+			report("cold scans", cold, entries);
+			report("indexed reads", indexed, entries);
+			System.out.println(String.format("index size %.1f KB, %.1f bytes/entry, %.1fx faster",
+					size / 1024.0, (double) size / entries, (double) cold / indexed));
+		} finally {
+			BenchmarkTree.delete(indexDir);
+			BenchmarkTree.delete(root);
+		}
+	}
+
+	private static void report(String name, long nanos, int entries) {
+		System.out.println(String.format("%-14s %8.1f ms %8.2f us/entry", name, nanos / 1e6,
+				nanos / 1e3 / entries));
+	}
+}
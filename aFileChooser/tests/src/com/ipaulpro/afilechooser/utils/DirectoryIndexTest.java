@@ -0,0 +1,146 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Listings are served from the index only while they are current.
+ */
+public class DirectoryIndexTest extends TestCase {
+
+	private static final long TIMEOUT = 5000;
+	private static final long MODIFIED = 1234567890000L;
+
+	private File mDir;
+	private File mIndexDir;
+	private DirectoryIndex mIndex;
+	private List<VFile> mFiles;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mIndexDir = File.createTempFile("DirectoryIndexTest", "");
+		assertTrue(mIndexDir.delete());
+		mIndex = new DirectoryIndex(mIndexDir);
+		mDir = new File("/indexed/dir");
+		mFiles = Arrays.asList(new VFile(mDir, "sub", true, 0, 1, true),
+				new VFile(mDir, "\u00dcn\u00efcode.txt", false, 42, 2, false));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		final File[] listings = mIndexDir.listFiles();
+		if (listings != null) {
+			for (File listing : listings)
+				listing.delete();
+		}
+		mIndexDir.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Writes happen in the background, wait for one to land.
+	 */
+	private List<VFile> awaitRead(File dir, boolean foldersOnly, int sortOrder, long lastModified)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		List<VFile> files;
+		while ((files = mIndex.read(dir, foldersOnly, sortOrder, lastModified)) == null
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		return files;
+	}
+
+	public void testRoundTrip() throws Exception {
+		mIndex.write(mDir, false, FileSorter.SORT_NAME, MODIFIED, mFiles);
+		final List<VFile> files = awaitRead(mDir, false, FileSorter.SORT_NAME, MODIFIED);
+		assertNotNull(files);
+		assertEquals(2, files.size());
+
+		final VFile sub = files.get(0);
+		assertEquals(new File(mDir, "sub"), sub);
+		assertTrue(sub.isDirectory());
+		assertTrue(sub.hasChildDirectories());
+		assertEquals(1, sub.lastModified());
+
+		final VFile file = files.get(1);
+		assertEquals("\u00dcn\u00efcode.txt", file.getName());
+		assertFalse(file.isDirectory());
+		assertEquals(42, file.length());
+		assertEquals(2, file.lastModified());
+	}
+
+	public void testUnknownChildDirectoriesStayUnknown() throws Exception {
+		mIndex.write(mDir, false, FileSorter.SORT_NAME, MODIFIED,
+				Arrays.asList(new VFile(mDir, "unprobed", true, 0, 1)));
+		final List<VFile> files = awaitRead(mDir, false, FileSorter.SORT_NAME, MODIFIED);
+		assertNotNull(files);
+		assertNull(files.get(0).peekChildDirectories());
+		assertFalse(files.get(0).hasChildDirectories());
+	}
+
+	public void testModifiedDirectoryIsStale() throws Exception {
+		mIndex.write(mDir, false, FileSorter.SORT_NAME, MODIFIED, mFiles);
+		assertNotNull(awaitRead(mDir, false, FileSorter.SORT_NAME, MODIFIED));
+		assertNull(mIndex.read(mDir, false, FileSorter.SORT_NAME, MODIFIED + 1));
+	}
+
+	public void testKeyedByModeAndOrder() throws Exception {
+		mIndex.write(mDir, false, FileSorter.SORT_NAME, MODIFIED, mFiles);
+		assertNotNull(awaitRead(mDir, false, FileSorter.SORT_NAME, MODIFIED));
+		assertNull(mIndex.read(mDir, true, FileSorter.SORT_NAME, MODIFIED));
+		assertNull(mIndex.read(mDir, false, FileSorter.SORT_NAME_DESCENDING, MODIFIED));
+		assertNull(mIndex.read(new File("/indexed/other"), false, FileSorter.SORT_NAME, MODIFIED));
+	}
+
+	public void testRewriteReplaces() throws Exception {
+		mIndex.write(mDir, false, FileSorter.SORT_NAME, MODIFIED, mFiles);
+		mIndex.write(mDir, false, FileSorter.SORT_NAME, MODIFIED + 1, mFiles.subList(0, 1));
+		final List<VFile> files = awaitRead(mDir, false, FileSorter.SORT_NAME, MODIFIED + 1);
+		assertNotNull(files);
+		assertEquals(1, files.size());
+		assertNull(mIndex.read(mDir, false, FileSorter.SORT_NAME, MODIFIED));
+	}
+
+	public void testCorruptListingIsIgnored() throws Exception {
+		mIndex.write(mDir, false, FileSorter.SORT_NAME, MODIFIED, mFiles);
+		assertNotNull(awaitRead(mDir, false, FileSorter.SORT_NAME, MODIFIED));
+
+		final File[] listings = mIndexDir.listFiles();
+		assertEquals(1, listings.length);
+		truncate(listings[0], listings[0].length() - 3);
+		assertNull(mIndex.read(mDir, false, FileSorter.SORT_NAME, MODIFIED));
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		final FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.getChannel().truncate(length);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Lookups in extension tables, both the generated one and tables built at
+ * run time.
+ */
+public class ExtensionTableTest extends TestCase {
+
+	public void testLookup() {
+		final Map<String, String> mimeTypes = new HashMap<String, String>();
+		mimeTypes.put(".pdf", "application/pdf");
+		mimeTypes.put("JPG", "image/jpeg");
+		mimeTypes.put("jpeg", "image/jpeg");
+		final ExtensionTable table = new ExtensionTable(mimeTypes);
+
+		assertEquals(3, table.size());
+		assertEquals("application/pdf", table.get("pdf", 0, 3));
+		assertEquals("image/jpeg", table.get("a.JpG", 2, 5));
+		assertNull(table.get("pd", 0, 2));
+		assertNull(table.get("pdfx", 0, 4));
+		assertNull(table.get("", 0, 0));
+		// Extensions are kept sorted, MIME types shared
+		assertEquals("jpeg", table.getExtension(0));
+		assertEquals("jpg", table.getExtension(1));
+		assertSame(table.getMimeType(0), table.getMimeType(1));
+	}
+
+	public void testDuplicatesKeepOne() {
+		final Map<String, String> mimeTypes = new HashMap<String, String>();
+		mimeTypes.put("txt", "text/plain");
+		mimeTypes.put(".TXT", "text/plain");
+		mimeTypes.put(".", "application/octet-stream");
+		final ExtensionTable table = new ExtensionTable(mimeTypes);
+		assertEquals(1, table.size());
+		assertEquals("text/plain", table.get("TXT", 0, 3));
+	}
+
+	public void testEmpty() {
+		final ExtensionTable table = new ExtensionTable(new HashMap<String, String>());
+		assertEquals(0, table.size());
+		assertNull(table.get("txt", 0, 3));
+	}
+
+	public void testManyExtensions() {
+		final Map<String, String> mimeTypes = new HashMap<String, String>();
+		for (int i = 0; i < 2000; i++)
+			mimeTypes.put("x" + i, "type/" + (i % 7));
+		final ExtensionTable table = new ExtensionTable(mimeTypes);
+		assertEquals(2000, table.size());
+		for (int i = 0; i < 2000; i++)
+			assertEquals("type/" + (i % 7), table.get("X" + i, 0, ("X" + i).length()));
+		assertNull(table.get("x2000", 0, 5));
+	}
+
+	public void testPut() {
+		final MimeTypes mimeTypes = new MimeTypes();
+		assertEquals("*/*", mimeTypes.getMimeType("a.abc"));
+		mimeTypes.put(".ABC", "Text/ABC");
+		mimeTypes.put("xyz", "text/xyz");
+		assertEquals("text/abc", mimeTypes.getMimeType("a.Abc"));
+		assertEquals("text/xyz", mimeTypes.getMimeType("a.xyz"));
+		assertTrue(mimeTypes.getExtensions("text/*").contains("abc"));
+
+		// Added types take precedence over the built in table
+		final MimeTypes builtIn = new MimeTypes(MimeTypeTable.create());
+		builtIn.put("pdf", "application/x-pdf");
+		assertEquals("application/x-pdf", builtIn.getMimeType("a.pdf"));
+	}
+
+	/**
+	 * The table generated from res/xml/mimetypes.xml must resolve exactly
+	 * like one built from its entries at run time.
+	 */
+	public void testGeneratedTable() {
+		final ExtensionTable generated = MimeTypeTable.create();
+		assertTrue(generated.size() > 0);
+
+		final Map<String, String> mimeTypes = new HashMap<String, String>();
+		for (int i = 0; i < generated.size(); i++) {
+			final String extension = generated.getExtension(i);
+			if (i > 0)
+				assertTrue(extension.compareTo(generated.getExtension(i - 1)) > 0);
+			mimeTypes.put(extension, generated.getMimeType(i));
+		}
+		final ExtensionTable built = new ExtensionTable(mimeTypes);
+
+		assertEquals(generated.size(), built.size());
+		for (int i = 0; i < generated.size(); i++) {
+			final String extension = generated.getExtension(i);
+			final String upper = extension.toUpperCase();
+			assertEquals(extension, built.getExtension(i));
+			assertEquals(generated.getMimeType(i), generated.get(upper, 0, upper.length()));
+			assertEquals(built.get(extension, 0, extension.length()),
+					generated.get(extension, 0, extension.length()));
+		}
+		assertEquals("application/pdf", generated.get("pdf", 0, 3));
+	}
+}
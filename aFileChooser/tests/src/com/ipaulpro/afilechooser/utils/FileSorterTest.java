@@ -0,0 +1,128 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Sorting, merging and searching of listings, on entries that never touch
+ * the file system.
+ */
+public class FileSorterTest extends TestCase {
+
+	private static final File DIR = new File("/sorter");
+
+	private FileSorter mSorter;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mSorter = new FileSorter(FileSorter.SORT_NAME);
+	}
+
+	private static VFile folder(String name) {
+		return new VFile(DIR, name, true, 0, 0, false);
+	}
+
+	private static VFile file(String name) {
+		return new VFile(DIR, name, false, 0, 0, false);
+	}
+
+	private static List<String> names(List<? extends File> files) {
+		final List<String> names = new ArrayList<String>();
+		for (File file : files)
+			names.add(file.getName());
+		return names;
+	}
+
+	public void testSortIgnoresCase() {
+		final List<VFile> files = new ArrayList<VFile>(Arrays.asList(
+				file("b"), file("C"), file("a"), file("B")));
+		mSorter.sort(files);
+		assertEquals(Arrays.asList("a", "b", "B", "C"), names(files));
+	}
+
+	public void testSortDescending() {
+		final List<VFile> files = new ArrayList<VFile>(Arrays.asList(file("b"), file("c"), file("a")));
+		new FileSorter(FileSorter.SORT_NAME_DESCENDING).sort(files);
+		assertEquals(Arrays.asList("c", "b", "a"), names(files));
+	}
+
+	public void testCanceledSortKeepsOrder() {
+		final List<VFile> files = new ArrayList<VFile>(Arrays.asList(file("b"), file("a")));
+		mSorter.cancel();
+		mSorter.sort(files);
+		assertEquals(Arrays.asList("b", "a"), names(files));
+	}
+
+	public void testMergePutsFoldersFirst() {
+		final List<VFile> first = Arrays.asList(folder("b"), file("a"), file("c"));
+		final List<VFile> second = Arrays.asList(folder("a"), folder("c"), file("b"));
+		assertEquals(Arrays.asList("a", "b", "c", "a", "b", "c"), names(mSorter.merge(first, second)));
+		assertTrue(mSorter.merge(first, second).get(2).isDirectory());
+	}
+
+	public void testMergeKeepsTiesInOrder() {
+		final VFile first = file("same");
+		final VFile second = file("Same");
+		final List<VFile> merged = mSorter.merge(Collections.singletonList(first),
+				Collections.singletonList(second));
+		assertSame(first, merged.get(0));
+		assertSame(second, merged.get(1));
+	}
+
+	public void testMergeMany() {
+		final List<List<VFile>> listings = new ArrayList<List<VFile>>();
+		listings.add(Arrays.asList(folder("m"), file("b"), file("x")));
+		listings.add(Collections.<VFile> emptyList());
+		listings.add(Arrays.asList(file("a"), file("y")));
+		listings.add(Arrays.asList(folder("d"), file("b")));
+		final List<VFile> merged = mSorter.merge(listings);
+		assertEquals(Arrays.asList("d", "m", "a", "b", "b", "x", "y"), names(merged));
+		// Ties come from earlier listings first
+		assertSame(listings.get(0).get(1), merged.get(3));
+		assertSame(listings.get(3).get(1), merged.get(4));
+	}
+
+	public void testInsertionPoint() {
+		final List<VFile> files = Arrays.asList(folder("b"), folder("d"), file("a"), file("c"), file("c"));
+		assertEquals(0, mSorter.insertionPoint(files, folder("a")));
+		assertEquals(2, mSorter.insertionPoint(files, folder("e")));
+		assertEquals(2, mSorter.insertionPoint(files, file("0")));
+		assertEquals(5, mSorter.insertionPoint(files, file("C")));
+		assertEquals(5, mSorter.insertionPoint(files, file("z")));
+	}
+
+	public void testIndexOf() {
+		final List<VFile> files = Arrays.asList(folder("a"), folder("c"), file("a"), file("b"), file("B"));
+		assertEquals(0, mSorter.indexOf(files, "a"));
+		assertEquals(1, mSorter.indexOf(files, "c"));
+		assertEquals(3, mSorter.indexOf(files, "b"));
+		assertEquals(4, mSorter.indexOf(files, "B"));
+		assertEquals(-1, mSorter.indexOf(files, "A"));
+		assertEquals(-1, mSorter.indexOf(files, "d"));
+		assertEquals(-1, mSorter.indexOf(Collections.<VFile> emptyList(), "a"));
+	}
+}
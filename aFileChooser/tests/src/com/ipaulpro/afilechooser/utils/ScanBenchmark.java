@@ -0,0 +1,130 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Plain JVM benchmark of {@link FileScanner} against the two-pass
+ * listFiles() scan getFileList used to do.
+ * 
+ * Run it with the library classes and the support library on the class
+ * path, no device needed:
+ * 
+ * <pre>
+ * java -cp classes:libs/android-support-v4.jar:tests-classes \
+ *     com.ipaulpro.afilechooser.utils.ScanBenchmark [entries] [rounds]
+ * </pre>
+ * 
+ * The file system calls per entry are counted from what each scan does,
+ * java.io.File offers no way to fetch all attributes with one stat:
+ * 
+ * <ul>
+ * <li>two-pass scan: isDirectory() and isFile() for every entry, two
+ * directory listings, and no size or date;</li>
+ * <li>FileScanner: one directory listing, isDirectory() for every entry,
+ * then lastModified() and length() per file and lastModified() per
+ * folder. Folders are not listed themselves.</li>
+ * </ul>
+ */
+public class ScanBenchmark {
+
+	private static final int DEFAULT_ENTRIES = 50000;
+	private static final int DEFAULT_ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		final int entries = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRIES;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+		// One flat directory
+		final File dir = BenchmarkTree.create("ScanBenchmark", entries, entries);
+		try {
+			final int folders = (entries + BenchmarkTree.FOLDER_INTERVAL - 1) / BenchmarkTree.FOLDER_INTERVAL;
+			final int files = entries - folders;
+			System.out.println(entries + " entries: " + folders + " folders, " + files + " files");
+
+			long twoPass = Long.MAX_VALUE;
+			long scanner = Long.MAX_VALUE;
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				final int expected = scanTwoPass(dir).size();
+				twoPass = Math.min(twoPass, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				final List<VFile> scanned = new FileScanner(dir, false).scan();
+				scanner = Math.min(scanner, System.nanoTime() - start);
+
+				if (scanned.size() != expected)
+					throw new AssertionError(scanned.size() + " != " + expected);
+			}
+
+			report("two-pass listFiles", twoPass, entries,
+					2.0 + 2.0 / entries);
+			report("FileScanner", scanner, entries,
+					(1.0 + 1.0 * entries + 2.0 * files + 1.0 * folders) / entries);
+		} finally {
+			BenchmarkTree.delete(dir);
+		}
+	}
+
+	private static void report(String name, long nanos, int entries, double callsPerEntry) {
+		System.out.println(String.format("%-20s %8.1f ms %8.2f us/entry %6.2f fs calls/entry",
+				name, nanos / 1e6, nanos / 1e3 / entries, callsPerEntry));
+	}
+
+	/**
+	 * The scan getFileList did before FileScanner.
+	 */
+	private static List<File> scanTwoPass(File dir) {
+		final Comparator<File> comparator = new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return f1.getName().toLowerCase().compareTo(f2.getName().toLowerCase());
+			}
+		};
+		final List<File> list = new ArrayList<File>();
+		final File[] dirs = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isDirectory() && !file.getName().startsWith(FileScanner.HIDDEN_PREFIX);
+			}
+		});
+		if (dirs != null) {
+			Arrays.sort(dirs, comparator);
+			list.addAll(Arrays.asList(dirs));
+		}
+		final File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && !file.getName().startsWith(FileScanner.HIDDEN_PREFIX);
+			}
+		});
+		if (files != null) {
+			Arrays.sort(files, comparator);
+			list.addAll(Arrays.asList(files));
+		}
+		return list;
+	}
+}
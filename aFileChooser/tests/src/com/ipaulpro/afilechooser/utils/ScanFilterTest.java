@@ -0,0 +1,129 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Predicates, keys and narrowing of scan filters.
+ */
+public class ScanFilterTest extends TestCase {
+
+	private static final File DIR = new File("/filter");
+
+	private MimeTypes mMimeTypes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mMimeTypes = MimeTypes.getInstance(null);
+	}
+
+	private static VFile file(String name, long length) {
+		return new VFile(DIR, name, false, length, 0, false);
+	}
+
+	public void testDefault() {
+		assertEquals("", ScanFilter.DEFAULT.getNameKey());
+		assertTrue(ScanFilter.DEFAULT.accept(file("a.txt", 1)));
+		assertFalse(ScanFilter.DEFAULT.accept(file(".a.txt", 1)));
+		assertTrue(ScanFilter.DEFAULT.withHidden(true).accept(file(".a.txt", 1)));
+	}
+
+	public void testExtensions() {
+		final ScanFilter filter = ScanFilter.DEFAULT.withExtensions("PDF", "txt");
+		assertTrue(filter.acceptsFileName("a.pdf"));
+		assertTrue(filter.acceptsFileName("a.TXT"));
+		assertFalse(filter.acceptsFileName("apdf"));
+		assertFalse(filter.acceptsFileName("a.pdf.zip"));
+		assertFalse(filter.acceptsFileName("pdf"));
+		// Folders stay browsable
+		assertTrue(filter.accept(new VFile(DIR, "a.zip", true, 0, 0, false)));
+	}
+
+	public void testMimeTypes() {
+		final ScanFilter filter = ScanFilter.DEFAULT.withMimeTypes(mMimeTypes, "image/*");
+		assertTrue(filter.acceptsFileName("a.png"));
+		assertTrue(filter.acceptsFileName("a.JPG"));
+		assertFalse(filter.acceptsFileName("a.txt"));
+		assertFalse(filter.acceptsFileName("a"));
+		// The catch-all type keeps everything
+		assertEquals(ScanFilter.DEFAULT.getNameKey(),
+				ScanFilter.DEFAULT.withMimeTypes(mMimeTypes, "*/*").getNameKey());
+	}
+
+	public void testStatPredicates() {
+		final ScanFilter filter = ScanFilter.DEFAULT.withSizeRange(10, 20);
+		assertFalse(filter.accept(file("a", 9)));
+		assertTrue(filter.accept(file("a", 10)));
+		assertTrue(filter.accept(file("a", 20)));
+		assertFalse(filter.accept(file("a", 21)));
+		assertEquals(ScanFilter.DEFAULT, filter.getNameFilter());
+		assertEquals(filter.getNameKey(), ScanFilter.DEFAULT.getNameKey());
+	}
+
+	public void testNarrows() {
+		final ScanFilter pdf = ScanFilter.DEFAULT.withExtensions("pdf");
+		final ScanFilter pdfTxt = ScanFilter.DEFAULT.withExtensions("pdf", "txt");
+		final ScanFilter hidden = ScanFilter.DEFAULT.withHidden(true);
+		final ScanFilter images = ScanFilter.DEFAULT.withMimeTypes(mMimeTypes, "image/*");
+
+		assertTrue(pdf.narrows(ScanFilter.DEFAULT));
+		assertTrue(pdf.narrows(pdfTxt));
+		assertFalse(pdfTxt.narrows(pdf));
+		assertFalse(ScanFilter.DEFAULT.narrows(pdf));
+		assertTrue(ScanFilter.DEFAULT.narrows(hidden));
+		assertFalse(hidden.narrows(ScanFilter.DEFAULT));
+		assertTrue(images.narrows(ScanFilter.DEFAULT));
+		assertFalse(ScanFilter.DEFAULT.narrows(images));
+		assertTrue(images.withSizeRange(1, 2).narrows(images));
+	}
+
+	public void testEquals() {
+		final ScanFilter first = ScanFilter.DEFAULT.withExtensions("pdf", "txt").withSizeRange(1, 2);
+		final ScanFilter second = ScanFilter.DEFAULT.withSizeRange(1, 2).withExtensions("TXT", "pdf");
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+		assertEquals(first.getNameKey(), second.getNameKey());
+		assertFalse(first.equals(first.withSizeRange(1, 3)));
+		assertFalse(first.getNameKey().equals(ScanFilter.DEFAULT.withExtensions("pdf").getNameKey()));
+	}
+
+	public void testApplyKeepsOrder() {
+		final List<VFile> files = Arrays.asList(file("a.pdf", 1), file("b.txt", 1), file("c.pdf", 1));
+		final List<VFile> kept = ScanFilter.DEFAULT.withExtensions("pdf").apply(files);
+		assertEquals(2, kept.size());
+		assertSame(files.get(0), kept.get(0));
+		assertSame(files.get(2), kept.get(1));
+		assertSame(files, ScanFilter.DEFAULT.apply(files));
+	}
+
+	public void testMatchesMimeType() {
+		assertTrue(ScanFilter.matchesMimeType("image/*", "image/png"));
+		assertTrue(ScanFilter.matchesMimeType("image/*", "IMAGE/PNG"));
+		assertFalse(ScanFilter.matchesMimeType("image/*", "imagex/png"));
+		assertTrue(ScanFilter.matchesMimeType("text/plain", "text/plain"));
+		assertFalse(ScanFilter.matchesMimeType("text/plain", null));
+		assertTrue(ScanFilter.matchesMimeType("*/*", null));
+	}
+}
@@ -0,0 +1,153 @@
+/* 
+ * Copyright (C) 2013 Paul Burke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ipaulpro.afilechooser.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import com.ipaulpro.afilechooser.ArchiveEntry;
+import com.ipaulpro.afilechooser.VFile;
+
+/**
+ * Directory trees built from the central directory of zip archives.
+ */
+public class ZipIndexTest extends TestCase {
+
+	private File mArchive;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mArchive = File.createTempFile("ZipIndexTest", ".zip");
+		writeArchive(mArchive, "docs/b.txt", "docs/A.txt", "docs/sub/c.txt", "empty/", "top.txt",
+				".hidden/d.txt", "../evil.txt", "docs/../evil.txt", "v1..2/e.txt", "/abs.txt");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mArchive.delete();
+		super.tearDown();
+	}
+
+	private static void writeArchive(File archive, String... names) throws IOException {
+		final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			for (String name : names) {
+				out.putNextEntry(new ZipEntry(name));
+				if (!name.endsWith("/"))
+					out.write(name.getBytes("UTF-8"));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static List<String> names(List<? extends File> files) {
+		final List<String> names = new ArrayList<String>();
+		for (File file : files)
+			names.add(file.getName());
+		return names;
+	}
+
+	public void testTree() throws IOException {
+		final ZipIndex index = ZipIndex.get(mArchive);
+		assertEquals(Arrays.asList("docs", "empty", "v1..2", "abs.txt", "top.txt"), names(index.list("")));
+		assertEquals(Arrays.asList("sub", "A.txt", "b.txt"), names(index.list("docs")));
+		assertEquals(Arrays.asList("c.txt"), names(index.list("/docs/sub/")));
+		assertEquals(0, index.list("empty").size());
+		assertNull(index.list("missing"));
+	}
+
+	public void testEntries() throws IOException {
+		final List<VFile> root = ZipIndex.get(mArchive).list("");
+		final VFile docs = root.get(0);
+		assertTrue(docs.isDirectory());
+		assertTrue(docs.hasChildDirectories());
+		assertFalse(root.get(1).hasChildDirectories());
+
+		final ArchiveEntry c = (ArchiveEntry) ZipIndex.get(mArchive).list("docs/sub").get(0);
+		assertEquals("docs/sub/c.txt", c.getEntryName());
+		assertEquals("docs/sub/c.txt".length(), c.length());
+		assertEquals(mArchive, c.getArchive());
+	}
+
+	public void testParentSegments() {
+		assertTrue(ZipIndex.hasParentSegment(".."));
+		assertTrue(ZipIndex.hasParentSegment("../a"));
+		assertTrue(ZipIndex.hasParentSegment("a/.."));
+		assertTrue(ZipIndex.hasParentSegment("a/../b"));
+		assertFalse(ZipIndex.hasParentSegment("a..b"));
+		assertFalse(ZipIndex.hasParentSegment("..a/b"));
+		assertFalse(ZipIndex.hasParentSegment("a/b.."));
+		assertFalse(ZipIndex.hasParentSegment("a/./b"));
+		assertFalse(ZipIndex.hasParentSegment(""));
+	}
+
+	public void testRebuiltWhenChanged() throws IOException {
+		final ZipIndex index = ZipIndex.get(mArchive);
+		assertSame(index, ZipIndex.get(mArchive));
+
+		writeArchive(mArchive, "other.txt");
+		final ZipIndex rebuilt = ZipIndex.get(mArchive);
+		assertNotSame(index, rebuilt);
+		assertEquals(Arrays.asList("other.txt"), names(rebuilt.list("")));
+	}
+
+	public void testExtract() throws IOException {
+		final ZipIndex index = ZipIndex.get(mArchive);
+		final ArchiveEntry entry = (ArchiveEntry) index.list("docs").get(2);
+		final File dest = File.createTempFile("ZipIndexTest", ".txt");
+		try {
+			index.extract(entry, dest);
+			final byte[] bytes = new byte[(int) dest.length()];
+			final FileInputStream in = new FileInputStream(dest);
+			try {
+				assertEquals(bytes.length, in.read(bytes));
+			} finally {
+				in.close();
+			}
+			assertEquals("docs/b.txt", new String(bytes, "UTF-8"));
+		} finally {
+			dest.delete();
+		}
+	}
+
+	public void testNotAnArchive() throws IOException {
+		final FileOutputStream out = new FileOutputStream(mArchive);
+		try {
+			out.write("not a zip".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		try {
+			ZipIndex.get(mArchive);
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}